@@ -0,0 +1,195 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.tests.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.grammaticalframework.eclipse.builder.GFDiagnostic;
+import org.grammaticalframework.eclipse.builder.GFDiagnosticParser;
+import org.junit.Test;
+
+/**
+ * The message shapes listed in {@link GFDiagnosticParser}'s documentation.
+ */
+public class GFDiagnosticParserTest {
+
+	/**
+	 * Feed some lines to a new parser
+	 * @param lines
+	 * @return the diagnostics produced, in order
+	 */
+	private static List<GFDiagnostic> parse(String... lines) {
+		final List<GFDiagnostic> diagnostics = new ArrayList<GFDiagnostic>();
+		GFDiagnosticParser parser = new GFDiagnosticParser(new GFDiagnosticParser.Listener() {
+			public void diagnostic(GFDiagnostic diagnostic) {
+				diagnostics.add(diagnostic);
+			}
+		});
+		for (String line : lines) {
+			parser.line(line);
+		}
+		parser.finish();
+		assertEquals(diagnostics.size(), parser.getCount());
+		return diagnostics;
+	}
+
+	@Test
+	public void locatedMessage() {
+		List<GFDiagnostic> diagnostics = parse(
+				"/home/john/gf/HelloEng.gf:9:",
+				"  Happened in the renaming of Recipient",
+				"     constant not found: Gender",
+				"     given ResEng, HelloEng");
+		assertEquals(1, diagnostics.size());
+		GFDiagnostic d = diagnostics.get(0);
+		assertEquals("HelloEng.gf", d.getFileName());
+		assertEquals(Integer.valueOf(9), d.getLineFrom());
+		assertEquals(Integer.valueOf(9), d.getLineTo());
+		assertEquals(GFDiagnostic.Severity.ERROR, d.getSeverity());
+		assertEquals("  Happened in the renaming of Recipient\n"
+				+ "     constant not found: Gender\n"
+				+ "     given ResEng, HelloEng", d.getMessage());
+		assertEquals(Arrays.asList("ResEng", "HelloEng"), d.getRelatedModules());
+		assertFalse(d.isSyntaxError());
+	}
+
+	@Test
+	public void lineRange() {
+		List<GFDiagnostic> diagnostics = parse(
+				"HelloEng.gf:9-12:",
+				"  Happened in linearization of Hello");
+		assertEquals(1, diagnostics.size());
+		assertEquals(Integer.valueOf(9), diagnostics.get(0).getLineFrom());
+		assertEquals(Integer.valueOf(12), diagnostics.get(0).getLineTo());
+	}
+
+	@Test
+	public void lineAndColumn() {
+		List<GFDiagnostic> diagnostics = parse(
+				"C:\\gf\\HelloEng.gf:9:17:",
+				"  Happened in linearization of Hello");
+		assertEquals(1, diagnostics.size());
+		assertEquals("HelloEng.gf", diagnostics.get(0).getFileName());
+		assertEquals(Integer.valueOf(9), diagnostics.get(0).getLineFrom());
+		assertEquals(Integer.valueOf(9), diagnostics.get(0).getLineTo());
+	}
+
+	@Test
+	public void firstLineNotIndented() {
+		List<GFDiagnostic> diagnostics = parse(
+				"HelloEng.gf:3:",
+				"constant not found: Gender",
+				"  given ResEng");
+		assertEquals(1, diagnostics.size());
+		assertEquals("constant not found: Gender\n  given ResEng", diagnostics.get(0).getMessage());
+		assertEquals(Arrays.asList("ResEng"), diagnostics.get(0).getRelatedModules());
+	}
+
+	@Test
+	public void warning() {
+		List<GFDiagnostic> diagnostics = parse(
+				"HelloEng.gf:4:",
+				"  Warning: no linearization of Hello");
+		assertEquals(1, diagnostics.size());
+		assertEquals(GFDiagnostic.Severity.WARNING, diagnostics.get(0).getSeverity());
+	}
+
+	@Test
+	public void syntaxError() {
+		List<GFDiagnostic> diagnostics = parse(
+				"HelloEng.gf:7:",
+				"  syntax error");
+		assertEquals(1, diagnostics.size());
+		assertTrue(diagnostics.get(0).isSyntaxError());
+	}
+
+	@Test
+	public void consecutiveMessages() {
+		List<GFDiagnostic> diagnostics = parse(
+				"HelloEng.gf:9:",
+				"  Happened in the renaming of Recipient",
+				"HelloEng.gf:12:",
+				"  Warning: no linearization of Hello",
+				"",
+				"Hello.gf:2:",
+				"  syntax error");
+		assertEquals(3, diagnostics.size());
+		assertEquals(Integer.valueOf(9), diagnostics.get(0).getLineFrom());
+		assertEquals(GFDiagnostic.Severity.ERROR, diagnostics.get(0).getSeverity());
+		assertEquals(Integer.valueOf(12), diagnostics.get(1).getLineFrom());
+		assertEquals(GFDiagnostic.Severity.WARNING, diagnostics.get(1).getSeverity());
+		assertEquals("Hello.gf", diagnostics.get(2).getFileName());
+		assertTrue(diagnostics.get(2).isSyntaxError());
+	}
+
+	@Test
+	public void moduleNameDiffers() {
+		List<GFDiagnostic> diagnostics = parse("module name Wkbx differs from file name Wkb");
+		assertEquals(1, diagnostics.size());
+		GFDiagnostic d = diagnostics.get(0);
+		assertNull(d.getFileName());
+		assertNull(d.getLineFrom());
+		assertEquals("module name Wkbx differs from file name Wkb", d.getMessage());
+		assertEquals(GFDiagnostic.Severity.ERROR, d.getSeverity());
+	}
+
+	@Test
+	public void fileNotFound() {
+		List<GFDiagnostic> diagnostics = parse(
+				"File ParadXXigmsEng.gf does not exist.",
+				"searched in: ./",
+				"             /home/john/.cabal/share/gf-3.3/lib",
+				"             /home/john/.cabal/share/gf-3.3/lib/prelude",
+				"HelloEng.gf:9:",
+				"  Happened in the renaming of Recipient");
+		assertEquals(2, diagnostics.size());
+		assertEquals("File ParadXXigmsEng.gf does not exist.", diagnostics.get(0).getMessage());
+		assertNull(diagnostics.get(0).getFileName());
+		assertEquals("HelloEng.gf", diagnostics.get(1).getFileName());
+	}
+
+	@Test
+	public void unknownBlocks() {
+		List<GFDiagnostic> diagnostics = parse(
+				"gf: something went wrong",
+				"and kept going",
+				"",
+				"something else");
+		assertEquals(2, diagnostics.size());
+		assertNull(diagnostics.get(0).getFileName());
+		assertEquals("gf: something went wrong\nand kept going", diagnostics.get(0).getMessage());
+		assertEquals("something else", diagnostics.get(1).getMessage());
+	}
+
+	@Test
+	public void unknownBlockEndsAtLocation() {
+		List<GFDiagnostic> diagnostics = parse(
+				"gf: something went wrong",
+				"HelloEng.gf:9:",
+				"  constant not found: Gender");
+		assertEquals(2, diagnostics.size());
+		assertNull(diagnostics.get(0).getFileName());
+		assertEquals("HelloEng.gf", diagnostics.get(1).getFileName());
+	}
+
+	@Test
+	public void noOutput() {
+		assertTrue(parse().isEmpty());
+		assertTrue(parse("", "   ").isEmpty());
+	}
+
+}
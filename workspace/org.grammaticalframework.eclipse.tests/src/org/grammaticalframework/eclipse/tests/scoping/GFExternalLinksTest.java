@@ -0,0 +1,50 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.tests.scoping;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.emf.common.util.URI;
+import org.grammaticalframework.eclipse.scoping.GFExternalLinks;
+import org.grammaticalframework.eclipse.scoping.GFScopingHelper;
+import org.junit.Test;
+
+/**
+ * Which module URIs are only provisional, i.e. point straight to an external file not linked yet.
+ */
+public class GFExternalLinksTest {
+
+	private static final String EXTERNAL = "/home/john/.cabal/share/gf-3.3/lib/src/english/ParadigmsEng.gf";
+
+	@Test
+	public void externalFileIsProvisional() {
+		assertTrue(GFExternalLinks.isProvisional(URI.createFileURI(EXTERNAL)));
+	}
+
+	@Test
+	public void linkIsNotProvisional() {
+		assertFalse(GFExternalLinks.isProvisional(URI.createPlatformResourceURI("/Foods/.gfbuild/ParadigmsEng.gf", true)));
+		assertFalse(GFExternalLinks.isProvisional(URI.createURI(".gfbuild/ParadigmsEng.gf")));
+	}
+
+	@Test
+	public void dummyIsNotProvisional() {
+		URI dummy = GFScopingHelper.createDummyURI(EXTERNAL);
+		assertTrue(GFScopingHelper.isDummyURI(dummy));
+		assertFalse(GFExternalLinks.isProvisional(dummy));
+	}
+
+	@Test
+	public void tagsFileIsNotProvisional() {
+		assertFalse(GFExternalLinks.isProvisional(URI.createFileURI("/home/john/Foods/.gfbuild/ParadigmsEng.gf-tags")));
+	}
+
+}
@@ -0,0 +1,151 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.tests.scoping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.xtext.junit4.InjectWith;
+import org.eclipse.xtext.junit4.XtextRunner;
+import org.eclipse.xtext.naming.QualifiedName;
+import org.eclipse.xtext.resource.IEObjectDescription;
+import org.eclipse.xtext.resource.XtextResourceSet;
+import org.eclipse.xtext.scoping.IGlobalScopeProvider;
+import org.eclipse.xtext.scoping.IScope;
+import org.grammaticalframework.eclipse.GFInjectorProvider;
+import org.grammaticalframework.eclipse.builder.GFBuilder;
+import org.grammaticalframework.eclipse.gF.GFPackage;
+import org.grammaticalframework.eclipse.scoping.GFExternalLinks;
+import org.grammaticalframework.eclipse.scoping.GFScopingHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Two modules in different folders which open the same linked library module
+ * get the very same descriptions for it, i.e. share its fragment.
+ */
+@InjectWith(GFInjectorProvider.class)
+@RunWith(XtextRunner.class)
+public class GFScopeSharingTest {
+
+	private static final String PROJECT = "GFScopeSharingTest";
+
+	@Inject
+	private IGlobalScopeProvider globalScopeProvider;
+
+	@Inject
+	private Provider<XtextResourceSet> resourceSetProvider;
+
+	private IProject project;
+	private File externalSource;
+
+	@Before
+	public void setUp() throws CoreException, IOException {
+		project = ResourcesPlugin.getWorkspace().getRoot().getProject(PROJECT);
+		if (project.exists())
+			project.delete(true, true, null);
+		project.create(null);
+		project.open(null);
+
+		// Library source outside the workspace, already linked into the folder beside its tags file
+		externalSource = File.createTempFile("Lib", ".gf");
+		write(externalSource, "resource Lib = { oper mkN : Str -> Str = \\s -> s ; }\n");
+		String libName = externalSource.getName();
+		String libModule = libName.substring(0, libName.length() - 3);
+		IFile libTags = createFile("lib/" + GFBuilder.BUILD_FOLDER + "/" + libName + "-tags",
+				"mkN\toper-type\t" + externalSource.getPath() + ":1\tStr -> Str\n");
+		IFolder linkFolder = GFScopingHelper.getExternalFolder(URI.createFileURI(libTags.getLocation().toOSString()));
+		if (!linkFolder.exists())
+			linkFolder.create(true, true, null);
+		linkFolder.getFile(libName).createLink(new Path(externalSource.getPath()), IResource.NONE, null);
+
+		// Two modules opening it, each with its own tags file
+		String indir = "mkN\tindir\t" + libModule + "\t\t" + libTags.getLocation().toOSString() + "\n";
+		createFile("a/A.gf", "resource A = open " + libModule + " in {}\n");
+		createFile("a/" + GFBuilder.BUILD_FOLDER + "/A.gf-tags", indir);
+		createFile("b/B.gf", "resource B = open " + libModule + " in {}\n");
+		createFile("b/" + GFBuilder.BUILD_FOLDER + "/B.gf-tags", indir);
+	}
+
+	@After
+	public void tearDown() throws CoreException {
+		project.delete(true, true, null);
+		externalSource.delete();
+	}
+
+	@Test
+	public void libraryFragmentShared() {
+		// Shared fragments are only weakly held, so both scopes are kept until the end
+		IScope scopeA = getScope("a/A.gf");
+		IScope scopeB = getScope("b/B.gf");
+		IEObjectDescription descA = scopeA.getSingleElement(QualifiedName.create("mkN"));
+		IEObjectDescription descB = scopeB.getSingleElement(QualifiedName.create("mkN"));
+		assertNotNull(descA);
+		assertSame(descA, descB);
+
+		// Pointing at the link, which any resource can resolve
+		URI uri = descA.getEObjectURI();
+		assertEquals("platform", uri.scheme());
+		assertFalse(GFExternalLinks.isProvisional(uri));
+		assertSame(descA, scopeA.getSingleElement(QualifiedName.create("mkN")));
+	}
+
+	private IScope getScope(String path) {
+		XtextResourceSet resourceSet = resourceSetProvider.get();
+		Resource resource = resourceSet.getResource(URI.createPlatformResourceURI(PROJECT + "/" + path, true), true);
+		return globalScopeProvider.getScope(resource, GFPackage.Literals.EXP__LIN_NAME, null);
+	}
+
+	private IFile createFile(String path, String content) throws CoreException {
+		IFile file = project.getFile(path);
+		createFolders(file.getParent());
+		file.create(new ByteArrayInputStream(content.getBytes()), true, null);
+		return file;
+	}
+
+	private static void createFolders(IContainer container) throws CoreException {
+		if (container instanceof IFolder && !container.exists()) {
+			createFolders(container.getParent());
+			((IFolder) container).create(true, true, null);
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+}
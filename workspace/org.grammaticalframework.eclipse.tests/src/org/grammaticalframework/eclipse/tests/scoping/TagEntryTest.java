@@ -0,0 +1,211 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.tests.scoping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.grammaticalframework.eclipse.scoping.GFTagsFileException;
+import org.grammaticalframework.eclipse.scoping.GFTagsIndex;
+import org.grammaticalframework.eclipse.scoping.TagEntry;
+import org.junit.Test;
+
+/**
+ * Parsing of tags file lines, and their round trip through a {@link GFTagsIndex}.
+ */
+public class TagEntryTest {
+
+	private static final String DIR = File.separator + "x" + File.separator;
+
+	private static final String[] LINES = {
+		"AAdj\tparam-value\t" + DIR + "ResEng.gf:75\tDegree -> Case -> AForm",
+		"mkN\toper-type\t" + DIR + "ParadigmsEng.gf:12-14\tStr -> N",
+		"mkA\toper-def\t" + DIR + "ParadigmsEng.gf:30\t{s : Str; lock_A : {}}",
+		"Hello\tfun\t" + DIR + "Hello.gf\t",
+		"mkN\tindir\tP\tPP\t" + DIR + ".gfbuild" + File.separator + "ParadigmsEng.gf-tags",
+		"house_N\tindir\tLexiconEng\t\t" + DIR + ".gfbuild" + File.separator + "LexiconEng.gf-tags",
+	};
+
+	@Test
+	public void ordinaryLine() throws GFTagsFileException {
+		TagEntry tag = new TagEntry(LINES[0]);
+		assertEquals("AAdj", tag.getIdent());
+		assertEquals("param-value", tag.getType());
+		assertEquals(DIR + "ResEng.gf", tag.getFile());
+		assertEquals("ResEng", tag.getModuleName());
+		assertEquals("ResEng", tag.getQualifier());
+		assertEquals("", tag.getAlias());
+		assertFalse(tag.hasAlias());
+		assertEquals(Integer.valueOf(75), tag.getLineFrom());
+		assertEquals(Integer.valueOf(75), tag.getLineTo());
+		assertEquals("Degree -> Case -> AForm", tag.getArgs());
+		assertFalse(tag.getIsIndirect());
+		assertEquals("ResEng.AAdj", tag.getQualifiedName());
+		assertEquals("AAdj", tag.getAliasQualifiedName());
+	}
+
+	@Test
+	public void lineRange() throws GFTagsFileException {
+		TagEntry tag = new TagEntry(LINES[1]);
+		assertEquals(DIR + "ParadigmsEng.gf", tag.getFile());
+		assertEquals(Integer.valueOf(12), tag.getLineFrom());
+		assertEquals(Integer.valueOf(14), tag.getLineTo());
+	}
+
+	@Test
+	public void noLineNumber() throws GFTagsFileException {
+		TagEntry tag = new TagEntry(LINES[3]);
+		assertEquals(DIR + "Hello.gf", tag.getFile());
+		assertEquals("Hello", tag.getModuleName());
+		assertNull(tag.getLineFrom());
+		assertNull(tag.getLineTo());
+		assertEquals("", tag.getArgs());
+	}
+
+	@Test
+	public void indirectLine() throws GFTagsFileException {
+		TagEntry tag = new TagEntry(LINES[4]);
+		assertEquals("mkN", tag.getIdent());
+		assertEquals("indir", tag.getType());
+		assertTrue(tag.getIsIndirect());
+		assertEquals("P", tag.getQualifier());
+		assertEquals("PP", tag.getAlias());
+		assertTrue(tag.hasAlias());
+		assertEquals(DIR + ".gfbuild" + File.separator + "ParadigmsEng.gf-tags", tag.getFile());
+		assertEquals("", tag.getArgs());
+		assertNull(tag.getLineFrom());
+		assertEquals("P.mkN", tag.getQualifiedName());
+		assertEquals("PP.mkN", tag.getAliasQualifiedName());
+	}
+
+	@Test
+	public void indirectLineWithoutAlias() throws GFTagsFileException {
+		TagEntry tag = new TagEntry(LINES[5]);
+		assertTrue(tag.getIsIndirect());
+		assertEquals("LexiconEng", tag.getQualifier());
+		assertFalse(tag.hasAlias());
+	}
+
+	@Test
+	public void malformedLines() {
+		String[] lines = {
+			"",
+			"mkN",
+			"mkN\toper-type",
+			"mkN\toper-type\t" + DIR + "ParadigmsEng.gf:12",
+			"mkN\tindir\tP\tPP",
+		};
+		for (String line : lines) {
+			try {
+				new TagEntry(line);
+				fail("Should not parse: " + line);
+			} catch (GFTagsFileException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void lockFields() throws GFTagsFileException {
+		assertEquals("{s : Str}", args("{s : Str; lock_A : {}}"));
+		assertEquals("{s : Str}", args("{lock_A : {}; s : Str}"));
+		assertEquals("{}", args("{lock_A : {}}"));
+		// As with replaceAll("(; )?lock_\\S+ : \\{\\}(; )?", ""), both separators go
+		assertEquals("{s : Strn : Num}", args("{s : Str; lock_N : {}; n : Num}"));
+		assertEquals("{s : Str}", args("{s : Str; lock_A : {}; lock_B : {}}"));
+		// Not lock fields
+		assertEquals("{lock_ : {}}", args("{lock_ : {}}"));
+		assertEquals("{lock_A : Str}", args("{lock_A : Str}"));
+	}
+
+	@Test
+	public void lockFieldsLikeRegex() throws GFTagsFileException {
+		String[] signatures = {
+			"Str -> A",
+			"{s : Str; lock_A : {}}",
+			"{s : Str; lock_N : {}; n : Num}",
+			"{lock_A : {}; lock_B : {}}",
+			"; lock_A : {}; ; lock_B : {}; ",
+			"lock_Alock_B : {}",
+			"{s : Str;  lock_A : {}}",
+			"lock_A : {} lock_B : {}",
+		};
+		for (String s : signatures) {
+			assertEquals(s, s.replaceAll("(; )?lock_\\S+ : \\{\\}(; )?", ""), args(s));
+		}
+	}
+
+	@Test
+	public void stringsShared() throws GFTagsFileException {
+		TagEntry tag1 = new TagEntry(LINES[0]);
+		TagEntry tag2 = new TagEntry(LINES[0]);
+		assertSame(tag1.getArgs(), tag2.getArgs());
+		assertSame(tag1.getFile(), tag2.getFile());
+	}
+
+	@Test
+	public void indexRoundTrip() throws IOException, GFTagsFileException {
+		File tagsFile = File.createTempFile("Test", ".gf-tags");
+		File indexFile = GFTagsIndex.getIndexFile(tagsFile);
+		try {
+			FileWriter writer = new FileWriter(tagsFile);
+			try {
+				for (String line : LINES) {
+					writer.write(line);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+			assertTrue(GFTagsIndex.write(tagsFile));
+			assertTrue(GFTagsIndex.isUpToDate(tagsFile));
+
+			GFTagsIndex index = GFTagsIndex.open(tagsFile);
+			assertNotNull(index);
+			List<TagEntry> tags = index.getTags();
+			assertEquals(LINES.length, tags.size());
+			for (int i = 0; i < LINES.length; i++) {
+				assertSameTag(new TagEntry(LINES[i]), tags.get(i));
+			}
+		} finally {
+			indexFile.delete();
+			tagsFile.delete();
+		}
+	}
+
+	private static String args(String signature) throws GFTagsFileException {
+		return new TagEntry("x\toper-type\t" + DIR + "M.gf:1\t" + signature).getArgs();
+	}
+
+	private static void assertSameTag(TagEntry expected, TagEntry actual) {
+		assertEquals(expected.getIdent(), actual.getIdent());
+		assertEquals(expected.getType(), actual.getType());
+		assertEquals(expected.getQualifier(), actual.getQualifier());
+		assertEquals(expected.getAlias(), actual.getAlias());
+		assertEquals(expected.getModuleName(), actual.getModuleName());
+		assertEquals(expected.getFile(), actual.getFile());
+		assertEquals(expected.getArgs(), actual.getArgs());
+		assertEquals(expected.getLineFrom(), actual.getLineFrom());
+		assertEquals(expected.getLineTo(), actual.getLineTo());
+		assertEquals(expected.getIsIndirect(), actual.getIsIndirect());
+		assertEquals(expected, actual);
+	}
+
+}
@@ -9,7 +9,9 @@
  */
 package org.grammaticalframework.eclipse.ui.editor.preferences;
 
+import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.ComboFieldEditor;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Font;
@@ -59,6 +61,20 @@ public class GFLanguageRootPreferencePage extends LanguageRootPreferencePage {
 		label_LibrarySourcePath.setFont(fontItalic);
 		label_LibrarySourcePath.setText("For jumping to definitions when using pre-compiled libraries (optional) ");
 
+		addField(new BooleanFieldEditor(GFPreferences.USE_COMPILER_SHELL, "&Keep GF running between builds", parent));
+		new Label(parent, SWT.NULL); // skip cell
+		Label label_CompilerShell = new Label(parent, SWT.NULL);
+		label_CompilerShell.setFont(fontItalic);
+		label_CompilerShell.setText("Avoids restarting GF and reloading libraries for every file ");
+
+		IntegerFieldEditor batchSizeEditor = new IntegerFieldEditor(GFPreferences.BUILD_BATCH_SIZE, "&Modules per compiler call:", parent);
+		batchSizeEditor.setValidRange(1, 100);
+		addField(batchSizeEditor);
+		new Label(parent, SWT.NULL); // skip cell
+		Label label_BatchSize = new Label(parent, SWT.NULL);
+		label_BatchSize.setFont(fontItalic);
+		label_BatchSize.setText("Modules in the same folder are compiled together, sharing the modules they import ");
+
 		String[][] entryNamesAndValues = new String[][]{
 			// Refer: http://logging.apache.org/log4j/1.2/manual.html
 			{"All", "DEBUG"},
@@ -77,6 +77,8 @@ public class GFPreferenceInitializer extends AbstractPreferenceInitializer {
 //		} catch (SecurityException _) {	}
 		
 		store.setDefault(GFPreferences.LOG_LEVEL, "DEBUG");
+		store.setDefault(GFPreferences.USE_COMPILER_SHELL, true);
+		store.setDefault(GFPreferences.BUILD_BATCH_SIZE, 8);
 		
 		// Listener for changing logging  level as needed
 		store.addPropertyChangeListener(new IPropertyChangeListener() {
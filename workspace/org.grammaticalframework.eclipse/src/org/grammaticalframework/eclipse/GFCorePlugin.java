@@ -0,0 +1,49 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ * 
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse;
+
+import org.eclipse.core.runtime.Plugin;
+import org.grammaticalframework.eclipse.builder.GFCompilerPool;
+import org.grammaticalframework.eclipse.builder.GFDependencyIndex;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Activator for the core plugin, responsible for registering workspace listeners
+ * and releasing any long-lived resources when the plugin is stopped.
+ */
+public class GFCorePlugin extends Plugin {
+
+	/**
+	 * Plugin ID
+	 */
+	public static final String PLUGIN_ID = "org.grammaticalframework.eclipse"; //$NON-NLS-1$
+
+	private static GFCorePlugin INSTANCE;
+
+	@Override
+	public void start(BundleContext context) throws Exception {
+		super.start(context);
+		INSTANCE = this;
+		GFDependencyIndex.startListening();
+	}
+
+	@Override
+	public void stop(BundleContext context) throws Exception {
+		GFDependencyIndex.stopListening();
+		GFCompilerPool.shutdownAll();
+		INSTANCE = null;
+		super.stop(context);
+	}
+
+	public static GFCorePlugin getInstance() {
+		return INSTANCE;
+	}
+
+}
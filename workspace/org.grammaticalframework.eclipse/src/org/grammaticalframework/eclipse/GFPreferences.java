@@ -69,6 +69,22 @@ public class GFPreferences {
 		return getBoolean(BUILD_DEPENDENTS);
 	}
 	
+	/**
+	 * Preference to control compiling with long-running GF shells
+	 */
+	public static final String USE_COMPILER_SHELL = "useCompilerShell"; 
+	public static Boolean getUseCompilerShell() {
+		return getBoolean(USE_COMPILER_SHELL);
+	}
+	
+	/**
+	 * Preference for the maximum number of modules compiled by a single call to GF
+	 */
+	public static final String BUILD_BATCH_SIZE = "buildBatchSize"; 
+	public static Integer getBuildBatchSize() {
+		return getInt(BUILD_BATCH_SIZE, 1);
+	}
+	
 	/**
 	 * Preference to specify debug level
 	 */
@@ -117,4 +133,17 @@ public class GFPreferences {
 		return prefs.getBoolean(QUALIFIER, prefKey, false, contexts);
 	}
 	
+	/**
+	 * Gets an integer preference, with a default value.
+	 *
+	 * @param prefKey the pref key
+	 * @param defaultValue the default value
+	 * @return the integer
+	 */
+	public static Integer getInt(String prefKey, int defaultValue) {
+		IPreferencesService prefs = Platform.getPreferencesService();
+		IScopeContext[] contexts = null; 
+		return prefs.getInt(QUALIFIER, prefKey, defaultValue, contexts);
+	}
+	
 }
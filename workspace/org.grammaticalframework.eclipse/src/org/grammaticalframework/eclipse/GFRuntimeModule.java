@@ -13,6 +13,7 @@ import org.grammaticalframework.eclipse.documentation.GFDocumentationProvider;
 import org.grammaticalframework.eclipse.linking.GFLinker;
 import org.grammaticalframework.eclipse.linking.GFLinkingService;
 import org.grammaticalframework.eclipse.naming.GFQualifiedNameProvider;
+import org.grammaticalframework.eclipse.resource.GFFragmentProvider;
 import org.grammaticalframework.eclipse.resource.GFResourceDescriptionStrategy;
 import org.grammaticalframework.eclipse.scoping.GFScopeProvider;
 import org.grammaticalframework.eclipse.scoping.GFTagBasedGlobalScopeProvider;
@@ -39,6 +40,11 @@ public class GFRuntimeModule extends org.grammaticalframework.eclipse.AbstractGF
 	public Class<? extends org.eclipse.xtext.resource.IDefaultResourceDescriptionStrategy> bindIDefaultResourceDescriptionStrategy() {
 		return GFResourceDescriptionStrategy.class;
 	}
+	
+	// Resolves the proxies to definitions created from tags
+	public Class<? extends org.eclipse.xtext.resource.IFragmentProvider> bindIFragmentProvider() {
+		return GFFragmentProvider.class;
+	}
 
 	
 	@Override
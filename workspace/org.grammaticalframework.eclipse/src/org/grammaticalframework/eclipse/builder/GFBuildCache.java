@@ -0,0 +1,540 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.grammaticalframework.eclipse.scoping.GFTagsFileException;
+import org.grammaticalframework.eclipse.scoping.TagEntry;
+
+/**
+ * Persistent build cache, allowing files to be skipped when nothing they depend on has changed.
+ *
+ * For each source file we store a key, which is a hash of the file's content, the content of
+ * all the source files it depends on (found by following its tags file and those it refers to
+ * indirectly), and the build environment
+ * (GF version, library path, compiler flags). We also keep a copy of the tags files produced,
+ * including those written for the modules it imports, so that they can be restored if they are deleted
+ * without having to recompile.
+ *
+ * The cache lives in <code>.gfbuild/cache</code> at the top of the project. It is deleted by a clean,
+ * since it doesn't keep the warnings for the files it lets us skip.
+ */
+public class GFBuildCache {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFBuildCache.class);
+
+	/**
+	 * Name of cache folder, inside project's build folder
+	 */
+	public static final String CACHE_FOLDER = "cache";
+
+	/**
+	 * Name of index file, inside cache folder
+	 */
+	private static final String INDEX_FILE = "index";
+
+	/**
+	 * Version of cache format. Bump this to invalidate existing caches.
+	 */
+	private static final String VERSION = "1";
+	private static final String VERSION_KEY = "#version";
+
+	/**
+	 * Maximum number of file hashes remembered
+	 */
+	private static final int MAX_FILE_HASHES = 10000;
+
+	/**
+	 * Hashes of files we have already seen, by path, least recently used first. Entries are only valid
+	 * while the modification time and size of the file are unchanged.
+	 */
+	private static final Map<String, FileStamp> fileHashes = new LinkedHashMap<String, FileStamp>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FileStamp> eldest) {
+			return size() > MAX_FILE_HASHES;
+		}
+	};
+
+	/**
+	 * Hash used for files which don't exist
+	 */
+	private static final String MISSING = "missing";
+
+	private final File projectDir;
+	private final File cacheDir;
+	private final Properties index = new Properties();
+	private boolean dirty = false;
+
+	// Statistics
+	private int hits = 0;
+	private int restored = 0;
+	private int misses = 0;
+
+	private GFBuildCache(File projectDir, File cacheDir) {
+		this.projectDir = projectDir;
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Load the build cache for a project, or create an empty one
+	 * @param project
+	 * @return
+	 */
+	public static GFBuildCache load(IProject project) {
+		File projectDir = project.getLocation().toFile();
+		File cacheDir = getCacheFolder(project).getLocation().toFile();
+		GFBuildCache cache = new GFBuildCache(projectDir, cacheDir);
+		File indexFile = new File(cacheDir, INDEX_FILE);
+		if (indexFile.exists()) {
+			try {
+				InputStream is = new FileInputStream(indexFile);
+				try {
+					cache.index.load(is);
+				} finally {
+					is.close();
+				}
+				if (!VERSION.equals(cache.index.getProperty(VERSION_KEY))) {
+					log.info("Discarding build cache with old format");
+					cache.index.clear();
+				}
+			} catch (IOException e) {
+				log.warn("Error reading build cache " + indexFile, e);
+				cache.index.clear();
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Get the cache folder for a project. Does not check whether it exists.
+	 * @param project
+	 * @return
+	 */
+	public static IFolder getCacheFolder(IProject project) {
+		return project.getFolder(GFBuilder.BUILD_FOLDER).getFolder(CACHE_FOLDER);
+	}
+
+	/**
+	 * Write the index to disk, if anything has changed
+	 */
+	public void save() {
+		if (!dirty)
+			return;
+		if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+			log.warn("Cannot create build cache folder " + cacheDir);
+			return;
+		}
+		index.setProperty(VERSION_KEY, VERSION);
+		File indexFile = new File(cacheDir, INDEX_FILE);
+		File tmpFile = new File(cacheDir, INDEX_FILE + ".tmp");
+		try {
+			OutputStream os = new FileOutputStream(tmpFile);
+			try {
+				index.store(os, "GF build cache");
+			} finally {
+				os.close();
+			}
+			replace(tmpFile, indexFile);
+			dirty = false;
+		} catch (IOException e) {
+			log.warn("Error writing build cache " + indexFile, e);
+		}
+	}
+
+	/**
+	 * Compute the cache key for a file.
+	 * If any of the tags files it depends on can be found neither where GF wrote them nor in the cache
+	 * (e.g. a library's tags file in a build folder which has been cleaned since before it was
+	 * cached), we can't tell what the file depends on and so there is no key.
+	 *
+	 * @param file source file
+	 * @param environment anything else which affects the output, e.g. compiler version and flags
+	 * @return key, or <code>null</code> if it cannot be determined (e.g. file has never been built)
+	 */
+	public String computeKey(IFile file, String environment) {
+		// Find all source files this one depends on, by following the tags files
+		TreeSet<String> dependencies = new TreeSet<String>();
+		if (findTagsFiles(file, dependencies) == null)
+			return null;
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			update(digest, environment);
+			update(digest, hashFile(file.getRawLocation().toFile()));
+			String sourcePath = file.getRawLocation().toOSString();
+			for (String dep : dependencies) {
+				if (dep.equals(sourcePath))
+					continue;
+				update(digest, dep);
+				update(digest, hashFile(new File(dep)));
+			}
+			return toHex(digest.digest());
+		} catch (IOException e) {
+			log.debug("Error computing cache key for " + file.getFullPath(), e);
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			log.error("Cannot compute cache key", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Check if a file's output is up-to-date, restoring its tags file from the cache if necessary.
+	 * Updates the statistics.
+	 *
+	 * @param file source file
+	 * @param key key computed by {@link #computeKey(IFile, String)}
+	 * @return true if the file does not need to be built
+	 */
+	public boolean isUpToDate(IFile file, String key) {
+		if (key == null || !key.equals(index.getProperty(getEntryName(file)))) {
+			misses++;
+			return false;
+		}
+		// Restore the tags files which have been deleted, including those of imported modules
+		List<File> tagsFiles = findTagsFiles(file, null);
+		if (tagsFiles == null) {
+			misses++;
+			return false;
+		}
+		boolean restoredAny = false;
+		for (File tagsFile : tagsFiles) {
+			if (tagsFile.exists())
+				continue;
+			File snapshot = getSnapshot(tagsFile);
+			try {
+				if (snapshot == null)
+					throw new IOException("Tags file outside project");
+				tagsFile.getParentFile().mkdirs();
+				copy(snapshot, tagsFile);
+				restoredAny = true;
+			} catch (IOException e) {
+				log.debug("Cannot restore tags file " + tagsFile, e);
+				misses++;
+				return false;
+			}
+		}
+		if (restoredAny)
+			restored++;
+		hits++;
+		return true;
+	}
+
+	/**
+	 * Record a successful build of a file, keeping a copy of its tags file
+	 * and of the tags files it refers to within the project.
+	 *
+	 * @param file source file
+	 * @param key key computed by {@link #computeKey(IFile, String)} after building
+	 */
+	public void store(IFile file, String key) {
+		String entryName = getEntryName(file);
+		if (key == null) {
+			if (index.remove(entryName) != null)
+				dirty = true;
+			return;
+		}
+		List<File> tagsFiles = findTagsFiles(file, null);
+		if (tagsFiles == null) {
+			remove(file);
+			return;
+		}
+		try {
+			if (!cacheDir.exists())
+				cacheDir.mkdirs();
+			for (File tagsFile : tagsFiles) {
+				File snapshot = getSnapshot(tagsFile);
+				if (snapshot == null)
+					continue; // e.g. in the library, which isn't cleaned
+				// Tags files of shared imports are reached from many files, but only need copying when changed
+				if (tagsFile.exists() && !(snapshot.exists() && hashFile(tagsFile).equals(hashFile(snapshot))))
+					copy(tagsFile, snapshot);
+			}
+			index.setProperty(entryName, key);
+			dirty = true;
+		} catch (IOException e) {
+			log.debug("Cannot store tags file for " + file.getFullPath(), e);
+			remove(file);
+		} catch (NoSuchAlgorithmException e) {
+			log.error("Cannot compare tags files", e);
+			remove(file);
+		}
+	}
+
+	/**
+	 * Remove a file from the cache, so that it is built next time.
+	 * @param file
+	 */
+	public void remove(IFile file) {
+		if (index.remove(getEntryName(file)) != null)
+			dirty = true;
+	}
+
+	/**
+	 * Summary of cache usage since loading
+	 * @return
+	 */
+	public String getStatistics() {
+		return String.format("%d hits (%d restored), %d misses", hits, restored, misses);
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	public int getRestored() {
+		return restored;
+	}
+
+	/**
+	 * Name used for a source file inside the cache, based on its project-relative path
+	 * @param file
+	 * @return
+	 */
+	private String getEntryName(IFile file) {
+		return file.getProjectRelativePath().toPortableString().replace('/', '%');
+	}
+
+	/**
+	 * Location of the cached copy of a tags file, based on its path relative to the project
+	 * @param tagsFile
+	 * @return <code>null</code> if the tags file is outside the project
+	 */
+	private File getSnapshot(File tagsFile) {
+		String projectPath = projectDir.getPath() + File.separator;
+		String path = tagsFile.getPath();
+		if (!path.startsWith(projectPath))
+			return null;
+		return new File(cacheDir, path.substring(projectPath.length()).replace(File.separatorChar, '%'));
+	}
+
+	/**
+	 * Find all the tags files which a source file's tags file leads to, following references
+	 * to other tags files.
+	 *
+	 * @param file source file
+	 * @param dependencies if not <code>null</code>, the source files mentioned in the tags files are added to this
+	 * @return the tags files, where GF writes them (they may have been cleaned since), starting with
+	 * the file's own; or <code>null</code> if any of them can be found neither there nor in the cache
+	 */
+	private List<File> findTagsFiles(IFile file, Set<String> dependencies) {
+		List<File> tagsFiles = new ArrayList<File>();
+		HashSet<File> visited = new HashSet<File>();
+		LinkedList<File> queue = new LinkedList<File>();
+		queue.add(new File(GFBuilderHelper.getTagsFileFullPath(file)));
+		while (!queue.isEmpty()) {
+			File tagsFile = queue.removeFirst();
+			if (!visited.add(tagsFile))
+				continue;
+			File found = findTagsFile(tagsFile);
+			if (found == null) {
+				// Never been built, or cleaned before we kept a copy; we can't say anything about it
+				return null;
+			}
+			tagsFiles.add(tagsFile);
+			try {
+				BufferedReader reader = new BufferedReader(new FileReader(found));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						try {
+							TagEntry tag = new TagEntry(line);
+							if (tag.getIsIndirect()) {
+								queue.add(new File(tag.getFile()));
+							} else if (dependencies != null) {
+								dependencies.add(tag.getFile());
+							}
+						} catch (GFTagsFileException e) {
+							continue;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				log.debug("Error reading tags file " + found, e);
+				return null;
+			}
+		}
+		return tagsFiles;
+	}
+
+	/**
+	 * Find a tags file, or its cached copy if it has been deleted
+	 * @param tagsFile
+	 * @return <code>null</code> if neither exist
+	 */
+	private File findTagsFile(File tagsFile) {
+		if (tagsFile.exists())
+			return tagsFile;
+		File snapshot = getSnapshot(tagsFile);
+		return (snapshot != null && snapshot.exists()) ? snapshot : null;
+	}
+
+	/**
+	 * Get hash of a file's content, e.g. to tell whether a tags file has really changed.
+	 * This is only recomputed when the file's size or modification time change.
+	 * @param file
+	 * @return the hash, or <code>null</code> if the file can't be read
+	 */
+	public static String getFileHash(File file) {
+		try {
+			return hashFile(file);
+		} catch (IOException e) {
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get hash of a file's content, using the previously computed one if the file hasn't been touched.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	private static String hashFile(File file) throws IOException, NoSuchAlgorithmException {
+		String path = file.getPath();
+		long mtime = file.lastModified();
+		long size = file.length();
+		synchronized (fileHashes) {
+			FileStamp stamp = fileHashes.get(path);
+			if (stamp != null && stamp.mtime == mtime && stamp.size == size) {
+				return stamp.hash;
+			}
+		}
+		if (mtime == 0 && !file.exists()) {
+			// Remembered too, so that it isn't looked for again until it appears
+			synchronized (fileHashes) {
+				fileHashes.put(path, new FileStamp(mtime, size, MISSING));
+			}
+			return MISSING;
+		}
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = is.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			is.close();
+		}
+		String hash = toHex(digest.digest());
+		synchronized (fileHashes) {
+			fileHashes.put(path, new FileStamp(mtime, size, hash));
+		}
+		return hash;
+	}
+
+	private static void update(MessageDigest digest, String s) {
+		digest.update(s == null ? new byte[0] : s.getBytes());
+		digest.update((byte) 0);
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Copy a file, via a temporary file so that the target is never half-written
+	 * @param from
+	 * @param to
+	 * @throws IOException
+	 */
+	private static void copy(File from, File to) throws IOException {
+		File tmp = new File(to.getPath() + ".tmp");
+		InputStream is = new FileInputStream(from);
+		try {
+			OutputStream os = new FileOutputStream(tmp);
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = is.read(buffer)) > 0) {
+					os.write(buffer, 0, n);
+				}
+			} finally {
+				os.close();
+			}
+		} finally {
+			is.close();
+		}
+		replace(tmp, to);
+	}
+
+	/**
+	 * Rename a file, replacing the target if it exists
+	 * @param from
+	 * @param to
+	 * @throws IOException
+	 */
+	private static void replace(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			// Windows won't rename over an existing file
+			to.delete();
+			if (!from.renameTo(to)) {
+				throw new IOException("Cannot rename " + from + " to " + to);
+			}
+		}
+	}
+
+	/**
+	 * Remembered hash of a file
+	 */
+	private static class FileStamp {
+		final long mtime;
+		final long size;
+		final String hash;
+		FileStamp(long mtime, long size, String hash) {
+			this.mtime = mtime;
+			this.size = size;
+			this.hash = hash;
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+
+/**
+ * Outcome of compiling a single file.
+ *
+ * Compilation happens on worker threads, which may not create markers while the
+ * build holds the workspace lock. Problems are therefore collected here, and handed
+ * separately to the builder thread which turns them into markers.
+ */
+public class GFBuildResult {
+
+	private final IFile file;
+	private final List<GFDiagnostic> problems = new ArrayList<GFDiagnostic>();
+	private boolean success = false;
+
+	public GFBuildResult(IFile file) {
+		this.file = file;
+	}
+
+	public IFile getFile() {
+		return file;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+	public void setSuccess(boolean success) {
+		this.success = success;
+	}
+
+	public List<GFDiagnostic> getProblems() {
+		return problems;
+	}
+	public void addProblem(GFDiagnostic problem) {
+		problems.add(problem);
+	}
+	public boolean hasErrors() {
+		for (GFDiagnostic problem : problems) {
+			if (problem.getSeverity() == GFDiagnostic.Severity.ERROR)
+				return true;
+		}
+		return false;
+	}
+
+}
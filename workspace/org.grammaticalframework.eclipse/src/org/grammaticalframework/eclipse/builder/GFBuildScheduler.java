@@ -0,0 +1,337 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Builds a set of files on a bounded pool of worker threads, making sure that a module
+ * is only compiled once all the modules it imports (from within the same set) are done.
+ * Modules with no dependencies between them are compiled in parallel.
+ *
+ * The dependency graph is derived from the imports found in the tags files of the
+ * previous build. Files without a tags file have no known dependencies and are
+ * treated as independent.
+ *
+ * Files which are ready at the same time and live in the same folder may be compiled
+ * together in a single batch, so that the modules they share are only loaded once.
+ * Only one batch from each folder is compiled at a time, since GF writes the compiled
+ * modules it needs (including shared imports) into the folder's build directory,
+ * and two compilations must not write or read the same files there at once.
+ * So modules in different folders are compiled in parallel, those in the same folder in turn.
+ *
+ * Only {@link Task#compile(List)} runs on the workers. Everything else, including
+ * progress reporting and {@link Task#finish(GFBuildResult)}, runs on the calling thread
+ * which holds the workspace lock during a build.
+ */
+public class GFBuildScheduler {
+
+	/**
+	 * Work to be done for each file
+	 */
+	public interface Task {
+		/**
+		 * Get the names of the modules the given file depends upon, or <code>null</code>
+		 * if they are not known. Called on the calling thread.
+		 */
+		Set<String> getDependencies(IFile file);
+
+		/**
+		 * Compile a batch of files from the same folder, returning one result for each.
+		 * Called on a worker thread, so must not modify the workspace.
+		 */
+		List<GFBuildResult> compile(List<IFile> files);
+
+		/**
+		 * Process the result of a compilation. Called on the calling thread once for every file,
+		 * including those of a batch whose compilation threw an exception, which are unsuccessful.
+		 */
+		void finish(GFBuildResult result);
+
+		/**
+		 * Called on the calling thread every so often while compilations are running,
+		 * e.g. to report problems found so far.
+		 */
+		void update();
+	}
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFBuildScheduler.class);
+
+	/**
+	 * How often to check the monitor for cancellation while waiting for workers (ms)
+	 */
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * Number of worker threads
+	 */
+	private final int poolSize;
+
+	/**
+	 * Maximum number of files compiled together
+	 */
+	private final int batchSize;
+
+	public GFBuildScheduler(int poolSize, int batchSize) {
+		this.poolSize = Math.max(1, poolSize);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * One worker per available core
+	 * @return
+	 */
+	public static int getDefaultPoolSize() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Build all the given files in dependency order.
+	 * The monitor is expected to have been started by the caller; one unit of work is
+	 * reported for each file.
+	 *
+	 * @param files files to build
+	 * @param task work to be done for each file
+	 * @param monitor progress monitor, checked for cancellation
+	 * @throws OperationCanceledException
+	 */
+	public void run(Collection<IFile> files, final Task task, IProgressMonitor monitor) throws OperationCanceledException {
+		if (files.isEmpty())
+			return;
+
+		// Index the files by module name
+		Map<String, IFile> modules = new HashMap<String, IFile>(files.size());
+		for (IFile file : files) {
+			modules.put(GFBuilderHelper.getModuleNameFromFile(file), file);
+		}
+
+		// Build graph: for each file, the number of unbuilt dependencies and the files which depend on it
+		final Map<IFile, Integer> waitingOn = new LinkedHashMap<IFile, Integer>(files.size());
+		final Map<IFile, List<IFile>> dependents = new HashMap<IFile, List<IFile>>(files.size());
+		for (IFile file : files) {
+			if (waitingOn.containsKey(file))
+				continue;
+			int count = 0;
+			Set<String> dependencies = task.getDependencies(file);
+			if (dependencies != null) {
+				for (String dep : dependencies) {
+					IFile depFile = modules.get(dep);
+					if (depFile == null || depFile.equals(file))
+						continue;
+					if (!dependents.containsKey(depFile)) {
+						dependents.put(depFile, new ArrayList<IFile>());
+					}
+					dependents.get(depFile).add(file);
+					count++;
+				}
+			}
+			waitingOn.put(file, count);
+		}
+
+		int total = waitingOn.size();
+		int workers = Math.min(poolSize, total);
+		log.debug(String.format("Scheduling %d files on %d workers", total, workers));
+
+		LinkedList<IFile> ready = new LinkedList<IFile>();
+		for (Map.Entry<IFile, Integer> entry : waitingOn.entrySet()) {
+			if (entry.getValue() == 0) {
+				ready.add(entry.getKey());
+			}
+		}
+		for (IFile file : ready) {
+			waitingOn.remove(file);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers, new WorkerThreadFactory());
+		CompletionService<List<GFBuildResult>> completion = new ExecutorCompletionService<List<GFBuildResult>>(executor);
+		Map<Future<List<GFBuildResult>>, List<IFile>> running = new HashMap<Future<List<GFBuildResult>>, List<IFile>>();
+		Set<IContainer> busyFolders = new HashSet<IContainer>();
+		try {
+			while (true) {
+				// Check for cancellation
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+
+				// Submit everything which is ready, from folders which aren't being compiled already
+				for (final List<IFile> batch : takeBatches(ready, busyFolders)) {
+					Future<List<GFBuildResult>> future = completion.submit(new Callable<List<GFBuildResult>>() {
+						public List<GFBuildResult> call() throws Exception {
+							log.debug(Thread.currentThread().getName() + " building " + describe(batch));
+							return task.compile(batch);
+						}
+					});
+					running.put(future, batch);
+					busyFolders.add(batch.get(0).getParent());
+				}
+				if (running.isEmpty()) {
+					if (waitingOn.isEmpty()) {
+						break; // all done
+					}
+					// Nothing running but files still waiting means a cycle in the (stale) imports; just build them
+					log.warn("Circular dependencies between: " + waitingOn.keySet());
+					ready.addAll(waitingOn.keySet());
+					waitingOn.clear();
+					continue;
+				}
+				monitor.subTask("Building " + describeAll(running.values()));
+				task.update();
+
+				// Wait for something to finish
+				Future<List<GFBuildResult>> future = completion.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if (future == null) {
+					continue;
+				}
+				List<IFile> batch = running.remove(future);
+				busyFolders.remove(batch.get(0).getParent());
+				List<GFBuildResult> results = null;
+				try {
+					results = future.get();
+				} catch (ExecutionException e) {
+					log.error("Build failed on: " + describe(batch), e.getCause());
+				}
+				if (results == null) {
+					// Still finish every file, as failed
+					results = new ArrayList<GFBuildResult>(batch.size());
+					for (IFile file : batch) {
+						results.add(new GFBuildResult(file));
+					}
+				}
+				for (GFBuildResult result : results) {
+					task.finish(result);
+				}
+				monitor.worked(batch.size());
+
+				// Release dependents
+				for (IFile file : batch) {
+					List<IFile> deps = dependents.get(file);
+					if (deps == null)
+						continue;
+					for (IFile dep : deps) {
+						Integer count = waitingOn.get(dep);
+						if (count == null)
+							continue;
+						if (count <= 1) {
+							waitingOn.remove(dep);
+							ready.add(dep);
+						} else {
+							waitingOn.put(dep, count - 1);
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			log.info("Build interrupted");
+			throw new OperationCanceledException();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Take a batch of ready files from each folder which isn't being compiled already.
+	 * Files which have to wait for their folder are left in the ready list.
+	 *
+	 * @param ready files which can be built now
+	 * @param busyFolders folders with a batch being compiled
+	 * @return
+	 */
+	private List<List<IFile>> takeBatches(List<IFile> ready, Set<IContainer> busyFolders) {
+		Map<IContainer, List<IFile>> byFolder = new LinkedHashMap<IContainer, List<IFile>>();
+		for (Iterator<IFile> iter = ready.iterator(); iter.hasNext(); ) {
+			IFile file = iter.next();
+			IContainer folder = file.getParent();
+			if (busyFolders.contains(folder))
+				continue;
+			List<IFile> files = byFolder.get(folder);
+			if (files == null) {
+				files = new ArrayList<IFile>();
+				byFolder.put(folder, files);
+			}
+			if (files.size() < batchSize) {
+				files.add(file);
+				iter.remove();
+			}
+		}
+		return new ArrayList<List<IFile>>(byFolder.values());
+	}
+
+	/**
+	 * Describe the batches currently being built, for the progress monitor
+	 * @param batches
+	 * @return
+	 */
+	private String describeAll(Collection<List<IFile>> batches) {
+		ArrayList<IFile> files = new ArrayList<IFile>();
+		for (List<IFile> batch : batches) {
+			files.addAll(batch);
+		}
+		return describe(files);
+	}
+
+	/**
+	 * Describe the files currently being built, for the progress monitor
+	 * @param files
+	 * @return
+	 */
+	private String describe(Collection<IFile> files) {
+		StringBuilder sb = new StringBuilder();
+		for (IFile file : files) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(file.getName());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Creates named daemon threads, so that workers are easy to identify in logs and thread dumps
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private static final AtomicInteger poolNumber = new AtomicInteger(1);
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		private final String prefix = "GF build " + poolNumber.getAndIncrement() + "-";
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
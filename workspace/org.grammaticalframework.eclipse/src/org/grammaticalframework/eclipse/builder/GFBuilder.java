@@ -9,23 +9,23 @@
  */
 package org.grammaticalframework.eclipse.builder;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
-import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
@@ -35,7 +35,11 @@ import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.xtext.util.Pair;
+import org.eclipse.xtext.util.Tuples;
 import org.grammaticalframework.eclipse.GFPreferences;
+import org.grammaticalframework.eclipse.scoping.GFTagsIndex;
 import org.apache.log4j.Logger;
 
 /**
@@ -70,12 +74,22 @@ public class GFBuilder extends IncrementalProjectBuilder {
 	 * Use a single external folder per project, or in every source code folder?
 	 */
 	public static final Boolean USE_GLOBAL_EXTERNAL_FOLDER = false;
+	
+	/**
+	 * Flags passed to GF when building tags. Part of the build cache key.
+	 */
+	private static final String[] TAGS_FLAGS = {
+		"--v=0", // quiet - errors are still displayed
+		"--tags",
+	};
 
 	/**
 	 * Settings for during the build process
 	 */
 	private String gfPath;
 	private String gfLibPath;
+	private String gfVersion;
+	private GFCompilerPool compilerPool;
 //	private Boolean buildDependents;
 	private IFile[] buildFiles;
 	private HashSet<IFile> buildFilesSet;
@@ -84,7 +98,24 @@ public class GFBuilder extends IncrementalProjectBuilder {
 	/**
 	 * For avoiding duplicate work
 	 */
-	private Long buildStartTime;
+	private GFBuildCache buildCache;
+	private String buildEnvironment;
+	
+	/**
+	 * Which modules import which
+	 */
+	private GFDependencyIndex dependencyIndex;
+	
+	/**
+	 * Problems found by the workers, waiting to be turned into markers on the builder thread
+	 */
+	private final ConcurrentLinkedQueue<Pair<IFile, GFDiagnostic>> pendingProblems = new ConcurrentLinkedQueue<Pair<IFile, GFDiagnostic>>();
+	private GFMarkerUpdater markerUpdater;
+	
+	/**
+	 * Folders written to during the build, which need refreshing afterwards
+	 */
+	private final Set<IContainer> outputFolders = new LinkedHashSet<IContainer>();
 
 	/**
 	 * Logger
@@ -117,8 +148,15 @@ public class GFBuilder extends IncrementalProjectBuilder {
 			return null;
 		}
 		
-		// Record start time
-		buildStartTime = new Date().getTime();
+		// Use long-running GF shells if enabled
+		compilerPool = GFPreferences.getUseCompilerShell() ? GFCompilerPool.getInstance(gfPath, gfLibPath) : null;
+		
+		// Load build cache and dependencies
+		buildCache = GFBuildCache.load(getProject());
+		buildEnvironment = getBuildEnvironment();
+		dependencyIndex = GFDependencyIndex.getInstance(getProject());
+		markerUpdater = new GFMarkerUpdater(getProject());
+		markerUpdater.removeLegacyMarkers();
 		
 		try {
 			switch (kind) {
@@ -138,12 +176,14 @@ public class GFBuilder extends IncrementalProjectBuilder {
 				break;
 			}
 			
-			// Force project refresh
-			getProject().refreshLocal(IResource.DEPTH_INFINITE, monitor);
-			
 		} catch (OperationCanceledException e) {
 			log.info("Build cancelled");
 			throw e; // handled by the platform
+		} finally {
+			buildCache.save();
+			dependencyIndex.save();
+			refreshOutputs();
+			log.info("Build cache: " + buildCache.getStatistics());
 		}
 		
 		// build has no dependencies on other projects
@@ -160,52 +200,41 @@ public class GFBuilder extends IncrementalProjectBuilder {
 		log.info("Full build on: " + getProject().getName());
 		
 		// If we have some build files selected, use those
+		final ArrayList<IFile> files = new ArrayList<IFile>();
 		if (buildFilesInclusiveMode && buildFiles.length > 0) {
-			monitor.beginTask("Building " + getProject().getName(), buildFiles.length);
 			for (int i = 0; i < buildFiles.length; i++) {
-				// Check for cancellation
-				if (monitor.isCanceled()) {
-					throw new OperationCanceledException();
-				}
-				// Build
 				if (isBuildable(buildFiles[i])) {
-					monitor.subTask("Building "+buildFiles[i].getName());
-					buildFile(buildFiles[i]);
-					monitor.worked(1);
+					files.add(buildFiles[i]);
 				}
 			}
-			monitor.done();
 		}
 		// Otherwise visit every file in project
 		else {
-			int total_work = GFBuilderHelper.estimateProjectSize(getProject());
-			monitor.beginTask("Building " + getProject().getName(), total_work);
 			getProject().accept(new IResourceVisitor() {
 				public boolean visit(IResource resource) {
 					// Check for cancellation
 					if (monitor.isCanceled()) {
 						throw new OperationCanceledException();
 					}
-					// Build
 					if (isBuildable(resource)) {
-						monitor.subTask("Building "+resource.getName());
-						buildFile((IFile) resource);
-						monitor.worked(1);
+						files.add((IFile) resource);
 					}
 					
 					// Visit children too
 					return true;
 				}
 			});
-			monitor.done();
 		}
-		
+
+		monitor.beginTask("Building " + getProject().getName(), files.size());
+		buildAll(files, monitor);
+		monitor.done();
 	}
 
 	/**
 	 * Incremental build when (inclusive) build files are specified
-	 * For each build file, see if any of the files in the delta are in the build files imports
-	 * If so then build the build file (never attempt to build a file not in the build files!)
+	 * Collect the modules in the delta, and use the dependency index to find the build files which import them.
+	 * Only those build files are built (never attempt to build a file not in the build files!)
 	 *
 	 * @param delta the delta
 	 * @param monitor the monitor
@@ -215,49 +244,41 @@ public class GFBuilder extends IncrementalProjectBuilder {
 		log.info("Guided build on: " + projectDelta.getResource().getName());
 		monitor.beginTask("Building " + getProject().getName(), buildFiles.length);
 		
-		// Iterate over build files
-		for (int i = 0; i < buildFiles.length; i++) {
-			final IFile buildFile = buildFiles[i];			                       
-
-			// Check for cancellation
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
+		// Collect all affected source files in a single pass
+		final ArrayList<IFile> changed = new ArrayList<IFile>();
+		projectDelta.accept(new IResourceDeltaVisitor() {
+			public boolean visit(IResourceDelta delta) {
+				// Check for cancellation
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+				if (isBuildable(delta.getResource())) {
+					changed.add((IFile) delta.getResource());
+				}
+				return true; // Visit children too
 			}
-
-			// Get dependencies of build file - if null then always build
-//			Set<String> imports = GFBuilderHelper.getFileImports(buildFile);
-			final Set<String> dependencies = GFBuilderHelper.getDependenciesFromTagsFile(buildFile);
-			if (dependencies == null) {
-				monitor.subTask("Building "+buildFile.getName());
-				buildFile(buildFile);
-				monitor.worked(1);
-				continue;
+		});
+		
+		// Find the build files which are affected, by looking up the changed modules in the index.
+		// Build files whose dependencies are not known are always built.
+		Set<IFile> affected = dependencyIndex.getDependents(changed);
+		affected.addAll(changed);
+		final ArrayList<IFile> files = new ArrayList<IFile>();
+		for (IFile buildFile : buildFiles) {
+			if (dependencyIndex.getImports(buildFile) == null || affected.contains(buildFile)) {
+				files.add(buildFile);
 			}
-
-			// Visit all affected files
-			projectDelta.accept(new IResourceDeltaVisitor() {
-				public boolean visit(IResourceDelta delta) {
-					IResource res = delta.getResource();			                       			                       
-					if (isBuildable(res)) {
-						IFile deltaFile = (IFile)res;
-						// This check is weak, but quick and in the worst case just results in
-						// slightly over-zealous building.
-						if (deltaFile.equals(buildFile) || dependencies.contains(GFBuilderHelper.getModuleNameFromFile(deltaFile))) {
-							buildFile(buildFile);
-							return false; // stop visitor
-						}
-					}
-					return true; // Visit children too
-				}
-			});
-			monitor.worked(1);
 		}
+		
+		// Build them, reporting one unit for each build file not affected
+		monitor.worked(buildFiles.length - files.size());
+		buildAll(files, monitor);
 		monitor.done();
 	}
 
 	/**
 	 * Incremental build (when no build files are specified)
-	 * Just attempt to build everything
+	 * Build changed files along with all the modules which depend on them
 	 *
 	 * @param delta the delta
 	 * @param monitor the monitor
@@ -266,11 +287,9 @@ public class GFBuilder extends IncrementalProjectBuilder {
 	private void incrementalBuild(final IResourceDelta projectDelta, final IProgressMonitor monitor) throws OperationCanceledException, CoreException {
 		log.info("Incremental build on: " + projectDelta.getResource().getName());
 
-		// For being able to measure the work completed
-		int total_work = 5; // avg size of incremental build? no way to know beforehand
-		monitor.beginTask("Building " + getProject().getName(), total_work);
-		
-		// Rebuild changed files
+		// Collect changed and removed files
+		final LinkedHashSet<IFile> files = new LinkedHashSet<IFile>();
+		final ArrayList<IFile> removed = new ArrayList<IFile>();
 		projectDelta.accept(new IResourceDeltaVisitor() {
 			public boolean visit(IResourceDelta delta) {
 				
@@ -281,7 +300,6 @@ public class GFBuilder extends IncrementalProjectBuilder {
 				
 				// Do we want to bother further? 
 				if (!isBuildable(delta.getResource())) {
-					monitor.worked(1);
 					return true;
 				}
 				IFile file = (IFile)delta.getResource(); 
@@ -300,15 +318,33 @@ public class GFBuilder extends IncrementalProjectBuilder {
 					isAddOrEdit = true;
 				}
 				if (isAddOrEdit && !isExcluded(file)) {
-					monitor.subTask("Building "+file.getName());
-					buildFile(file);
+					files.add(file);
+				}
+				
+				// Modules depending on a removed one need rebuilding too
+				if (kind == IResourceDelta.REMOVED) {
+					removed.add(file);
 				}
 				
 				// Visit children too
-				monitor.worked(1);
 				return true;
 			}
 		});
+		
+		// Add everything which depends on the changed files
+		ArrayList<IFile> changed = new ArrayList<IFile>(files);
+		changed.addAll(removed);
+		for (IFile dependent : dependencyIndex.getDependents(changed)) {
+			if (dependent.exists() && isBuildable(dependent)) {
+				files.add(dependent);
+			}
+		}
+		for (IFile file : removed) {
+			dependencyIndex.remove(file);
+		}
+
+		monitor.beginTask("Building " + getProject().getName(), files.size());
+		buildAll(files, monitor);
 		monitor.done();
 	}
 	
@@ -325,6 +361,9 @@ public class GFBuilder extends IncrementalProjectBuilder {
 		// Delete all markers
 		getProject().deleteMarkers(null, true, IResource.DEPTH_INFINITE);
 		
+		// Tags files are going, so dependencies are no longer known
+		GFDependencyIndex.getInstance(getProject()).clear();
+		
 		// Visit everyone!
 		getProject().accept(new IResourceVisitor() {
 			public boolean visit(IResource resource) {
@@ -333,9 +372,8 @@ public class GFBuilder extends IncrementalProjectBuilder {
 					throw new OperationCanceledException();
 				}
 				
-				// If it's a buildable file, then clear its 'imports' data!
+				// Leave source files alone
 				if (isBuildable(resource)) {
-					GFBuilderHelper.clearFileImports(resource);
 					monitor.worked(1);
 					return true;
 				}
@@ -348,7 +386,8 @@ public class GFBuilder extends IncrementalProjectBuilder {
 
 				boolean delete = false;
 				
-				// Just delete the build/external folders outright
+				// Just delete the build/external folders outright, including the build cache
+				// (it doesn't keep the warnings of the files it lets us skip)
 				if (isFolder && (resource.getName().equals(BUILD_FOLDER) || resource.getName().equals(BUILD_FOLDER))) {
 					delete = true;
 				}
@@ -423,86 +462,205 @@ public class GFBuilder extends IncrementalProjectBuilder {
 	}
 
 	/**
-	 * Test if path to GF executable is correct and runnable
+	 * Test if path to GF executable is correct and runnable.
+	 * The result is remembered, so GF is only actually run the first time.
 	 *
 	 * @return true, if GF can be run OK
 	 */
 	private boolean checkGFPath() {
-		try {
-			// Put together call
-			ArrayList<String> command = new ArrayList<String>();
-			command.add(gfPath);
-			command.add("--version");
-
-			// Execute command
-			ProcessBuilder pbTags = new ProcessBuilder(command);
-			pbTags.redirectErrorStream(false);
-			Process procTags = pbTags.start();
-			
-			// Consume & log all output
-			BufferedReader processOutput = new BufferedReader(new InputStreamReader(procTags.getInputStream()));
-			String out_str;
-			StringBuilder out = new StringBuilder();
-			while ((out_str = processOutput.readLine()) != null) {
-				out.append(out_str);
-			}
-			
-			// If compile failed, parse error messages and add markers
-			if (procTags.waitFor() == 0) {
-				return true;
+		gfVersion = GFCompilerPool.getVersion(gfPath);
+		return gfVersion != null;
+	}
+	
+	/**
+	 * Everything besides the sources themselves which affects the output of the compiler
+	 * @return
+	 */
+	private String getBuildEnvironment() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(gfVersion).append('\n');
+		sb.append(gfLibPath).append('\n');
+		for (String flag : TAGS_FLAGS) {
+			sb.append(flag).append(' ');
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Build a collection of files in parallel, respecting their dependencies.
+	 * The monitor should already have been started with enough work for each file.
+	 *
+	 * @param files
+	 * @param monitor
+	 */
+	private void buildAll(Collection<IFile> files, IProgressMonitor monitor) throws OperationCanceledException {
+		ArrayList<IFile> toBuild = new ArrayList<IFile>(files.size());
+		for (IFile file : files) {
+			if (prepareBuildFile(file)) {
+				toBuild.add(file);
 			} else {
-				return false;
+				monitor.worked(1);
 			}
-
-		} catch (IOException e) {
-//			log.error("GF test failed");
-			return false;
-		} catch (InterruptedException e) {
-			log.error("GF test interrupted");
-			return false;
 		}
-
+		new GFBuildScheduler(GFBuildScheduler.getDefaultPoolSize(), GFPreferences.getBuildBatchSize()).run(toBuild, new GFBuildScheduler.Task() {
+			public Set<String> getDependencies(IFile file) {
+				return dependencyIndex.getImports(file);
+			}
+			public List<GFBuildResult> compile(List<IFile> files) {
+				List<GFBuildResult> results = buildFilesTags(files);
+				indexTags(files.get(0));
+				return results;
+			}
+			public void finish(GFBuildResult result) {
+				finishBuildFile(result);
+			}
+			public void update() {
+				drainProblems();
+				markerUpdater.flush();
+			}
+		}, monitor);
+		drainProblems();
+		markerUpdater.flush();
 	}
 	
 	/**
-	 * Build an individual file, including pre & post tasks
+	 * Pre-build tasks for an individual file
 	 * @param file
-	 * @return
+	 * @return false if the file should not be built
 	 */
-	private void buildFile(IFile file) {
-		// See if it's already been computed in this cycle
-		long mtime = GFBuilderHelper.getTagsFileMTime(file);
-		if (mtime > this.buildStartTime) {
+	private boolean prepareBuildFile(IFile file) {
+		// See if nothing has changed since it was last built
+		String key = buildCache.computeKey(file, buildEnvironment);
+		int restored = buildCache.getRestored();
+		if (buildCache.isUpToDate(file, key)) {
+			if (buildCache.getRestored() > restored) {
+				addOutputFolder(file);
+				indexTags(file);
+			}
 			log.info("Skipping: " + file.getFullPath());
-			return;
+			// Tags may have just been restored from the cache
+			if (dependencyIndex.getImports(file) == null) {
+				dependencyIndex.update(file);
+			}
+			return false;
 		}
 		
-		// Clean up first
-		try {
-			file.deleteMarkers(null, true, IResource.DEPTH_ZERO);
-		} catch(CoreException e) {
-			log.warn("Error deleting markers for: " + file.getFullPath(), e);
+		// Old markers are only removed once it's built, if they no longer apply
+		markerUpdater.begin(file);
+		addOutputFolder(file);
+		return true;
+	}
+	
+	/**
+	 * Remember that the build folder for a file is being written to
+	 * @param file
+	 */
+	private void addOutputFolder(IFile file) {
+		outputFolders.add(file.getParent().getFolder(new Path(BUILD_FOLDER)));
+	}
+	
+	/**
+	 * Write binary indexes for the tags files in a file's build folder which have changed,
+	 * including those GF wrote for the modules it depends on.
+	 * Only touches the file system, so may be run on a worker thread.
+	 * @param file
+	 */
+	private void indexTags(IFile file) {
+		int written = GFTagsIndex.updateFolder(new File(GFBuilderHelper.getBuildDirectory(file)));
+		if (written > 0) {
+			log.debug("Indexed " + written + " tags files for " + file.getName());
 		}
+	}
+	
+	/**
+	 * Bring the workspace up to date with the files written by the build.
+	 * Only the build folders written to are refreshed, rather than the whole project.
+	 */
+	private void refreshOutputs() {
+		if (outputFolders.isEmpty())
+			return;
+		// The cache and dependency index live at the top of the project
+		outputFolders.add(getProject().getFolder(BUILD_FOLDER));
+		outputFolders.add(GFBuildCache.getCacheFolder(getProject()));
+		for (IContainer folder : outputFolders) {
+			try {
+				folder.refreshLocal(IResource.DEPTH_ONE, null);
+			} catch (CoreException e) {
+				log.warn("Error refreshing " + folder.getFullPath(), e);
+			}
+		}
+		log.debug("Refreshed " + outputFolders.size() + " folders");
+		outputFolders.clear();
+	}
+	
+	/**
+	 * Pass all problems reported by the workers so far to the marker updater
+	 */
+	private void drainProblems() {
+		Pair<IFile, GFDiagnostic> problem;
+		while ((problem = pendingProblems.poll()) != null) {
+			markerUpdater.add(problem.getFirst(), problem.getSecond());
+		}
+	}
+	
+	/**
+	 * Post-build tasks for an individual file
+	 * @param result
+	 */
+	private void finishBuildFile(GFBuildResult result) {
+		IFile file = result.getFile();
 		
-		// Do it
-		buildFileTags(file);
+		// Update markers (everything for this file has been queued by now)
+		drainProblems();
+		markerUpdater.finish(file);
 		
 		// Process tags file and save imports
-		Set<String> imports = GFBuilderHelper.getDependenciesFromTagsFile(file);
-		GFBuilderHelper.saveFileImports(file, imports);
+		dependencyIndex.update(file);
+		
+		// Remember successful builds
+		if (result.isSuccess()) {
+			buildCache.store(file, buildCache.computeKey(file, buildEnvironment));
+		} else {
+			buildCache.remove(file);
+		}
 	}
 	
 	/**
-	 * For a single .gf file, compile it with the GF -tags flag which outputs
-	 * a single tags file.
+	 * For a batch of .gf files from the same folder, compile them with the GF -tags flag
+	 * which outputs a single tags file for each.
+	 * If GF gives up on a batch because of an error in one file, the other files which
+	 * were not built are compiled again on their own.
+	 * This is run on a worker thread, so it must not touch the workspace.
 	 *
-	 * @param file the file
+	 * @param files the files, all in the same folder
+	 * @return the result of the compilation, for each file
 	 */
-	private void buildFileTags(IFile file) {
+	private List<GFBuildResult> buildFilesTags(List<IFile> files) {
+
+		// Results by file name, so that errors can be assigned to the right file
+		final LinkedHashMap<String, GFBuildResult> results = new LinkedHashMap<String, GFBuildResult>();
+		HashMap<IFile, Long> tagsMTimes = new HashMap<IFile, Long>();
+		ArrayList<String> filenames = new ArrayList<String>();
+		for (IFile file : files) {
+			results.put(file.getName(), new GFBuildResult(file));
+			tagsMTimes.put(file, GFBuilderHelper.getTagsFileMTime(file));
+			filenames.add(file.getName());
+		}
+		boolean single = (files.size() == 1);
+		String describe = single ? files.get(0).getFullPath().toString() : filenames.toString();
 
-		String filename = file.getName();
-		String workingDir = file.getRawLocation().removeLastSegments(1).toOSString() + java.io.File.separator;
-		String buildDir = GFBuilderHelper.getBuildDirectory(file);
+		IFile first = files.get(0);
+		
+		// Errors with no file name can only be assigned when there is a single file
+		final GFBuildResult defaultResult = single ? results.get(first.getName()) : null;
+		GFDiagnosticParser parser = new GFDiagnosticParser(new GFDiagnosticParser.Listener() {
+			public void diagnostic(GFDiagnostic diagnostic) {
+				report(getResult(results, defaultResult, diagnostic), diagnostic);
+			}
+		});
+		
+		String workingDir = first.getRawLocation().removeLastSegments(1).toOSString() + java.io.File.separator;
+		String buildDir = GFBuilderHelper.getBuildDirectory(first);
 
 		try {
 			// Check the build directory and try to create it
@@ -512,11 +670,30 @@ public class GFBuilder extends IncrementalProjectBuilder {
 				buildDirFile.mkdir();
 			}
 
-			// Compile to get tags with: gf --tags HelloEng.gf
+			// Try a long-running shell first, parsing its reply as it is read.
+			// Messages are only held back until it is clear whether the reply can be used.
+			boolean triedShell = false;
+			if (compilerPool != null) {
+				final List<GFDiagnostic> shellDiagnostics = new ArrayList<GFDiagnostic>();
+				GFDiagnosticParser shellParser = new GFDiagnosticParser(new GFDiagnosticParser.Listener() {
+					public void diagnostic(GFDiagnostic diagnostic) {
+						shellDiagnostics.add(diagnostic);
+					}
+				});
+				triedShell = compilerPool.compileTags(workingDir, filenames, buildDir, shellParser);
+				if (triedShell && useShellOutput(shellDiagnostics, results, defaultResult, tagsMTimes)) {
+					log.info("Built with shell: " + describe);
+					return buildRemaining(results, single);
+				}
+				// Otherwise compile again below, since we can't tell from the shell what happened
+			}
+
+			// Compile to get tags with: gf --tags HelloEng.gf [HelloIta.gf ...]
 			ArrayList<String> command = new ArrayList<String>();
 			command.add(gfPath);
-			command.add("--v=0"); // quiet - errors are still displayed
-			command.add("--tags");
+			for (String flag : TAGS_FLAGS) {
+				command.add(flag);
+			}
 			command.add("--output-dir=" + buildDir);
 
 			// Use library path in command (if supplied)
@@ -525,7 +702,7 @@ public class GFBuilder extends IncrementalProjectBuilder {
 				command.add("--path=" + gfLibPath); 
 			}
 			
-			command.add(filename);
+			command.addAll(filenames);
 			
 			// For debugging what's getting called
 			StringBuilder sb = new StringBuilder("Running command:");
@@ -539,131 +716,156 @@ public class GFBuilder extends IncrementalProjectBuilder {
 			Process procTags = pbTags.start();
 			
             // Gobble out/err streams in new threads
-            StreamReader errorGobbler = new StreamReader(procTags.getErrorStream(), "ERROR");            
+            StreamReader errorGobbler = new StreamReader(procTags.getErrorStream(), "ERROR", parser);
             StreamReader outputGobbler = new StreamReader(procTags.getInputStream(), "OUTPUT");
             errorGobbler.start();
 			outputGobbler.start();
 			
-			// If compile failed, parse error messages and add markers
-			if (procTags.waitFor() != 0) {
-				String message = parseGFErrorStream(file, errorGobbler);
-				log.warn(String.format("Build failed on: %s\n%s", file.getFullPath(), message));
-			} else {
-				log.info("Built: "+ file.getFullPath());
+			// Error messages are parsed as they arrive; once finished, see what was built
+			try {
+				int exitValue = procTags.waitFor();
+				errorGobbler.join();
+				if (exitValue != 0) {
+					log.warn(String.format("Build failed on: %s (%d messages)", describe, parser.getCount()));
+					if (!single) {
+						markRebuilt(results.values(), tagsMTimes);
+					}
+				} else {
+					if (triedShell) {
+						compilerPool.reportMismatch();
+					}
+					for (GFBuildResult result : results.values()) {
+						result.setSuccess(true);
+					}
+					log.info("Built: " + describe);
+				}
+			} finally {
+				// In case we were interrupted
+				procTags.destroy();
 			}
 
 		} catch (IOException e) {
-			log.error("Build failed on: "+file.getFullPath(), e);
+			log.error("Build failed on: " + describe, e);
 		} catch (InterruptedException e) {
-			log.error("Build interrupted on: "+file.getFullPath(), e);
+			log.info("Build interrupted on: " + describe);
+			return new ArrayList<GFBuildResult>(results.values());
 		}
+		
+		return buildRemaining(results, single);
 	}
 	
 	/**
-	 * Separate method for parsing the GF error stream and adding markers as necessary
-	 * 
-	 * @param file
-	 * @param errStream
+	 * Compile separately anything in a batch which GF didn't get round to, because of an error in another file
+	 * @param results results for the batch so far, by file name
+	 * @param single whether the batch has a single file
+	 * @return the result of the compilation, for each file
 	 */
-	private String parseGFErrorStream(IFile file, StreamReader errorGobbler) {
-		List<String> errorLines = errorGobbler.getLines();
-		String errorString = errorGobbler.getContents();
-		try {
-			// ===== First just the types of errors than only occur once =====
-
-			// module name Wkbx differs from file name Wkb
-			if (errorLines.get(0).matches("^module name (.+) differs from file name (.+)$")) {
-				setMarker(file, errorLines.get(0));
-				return errorLines.get(0);
-			}
-			
-			//	/home/john/repositories/gf-eclipse-plugin/workspace-demo/Hello/ResEng.gf:5:17:
-			//	   syntax error
-//			if (errorLines.get(0).matches(".+\\.gf:(\\d+):(\\d+):.*")) {
-			if (errorLines.size() > 1 && errorLines.get(1).equals("   syntax error")) {
-				StringBuilder sb = new StringBuilder();
-				for (String s : errorLines) {
-				    sb.append(s);
-				    sb.append("\n");
+	private List<GFBuildResult> buildRemaining(Map<String, GFBuildResult> results, boolean single) {
+		if (!single) {
+			for (Map.Entry<String, GFBuildResult> entry : results.entrySet()) {
+				GFBuildResult result = entry.getValue();
+				if (!result.isSuccess() && !result.hasErrors()) {
+					entry.setValue(buildFilesTags(Collections.singletonList(result.getFile())).get(0));
 				}
-				return sb.toString();
-			}
-
-			//	File ParadXXigmsEng.gf does not exist.
-			//	searched in: ./
-            //				/home/john/repositories/gf-eclipse-plugin/workspace-demo/Functors
-            //				/home/john/.cabal/share/gf-3.3/lib
-            //				/home/john/.cabal/share/gf-3.3/lib/present
-            //				/home/john/.cabal/share/gf-3.3/lib/prelude
-			if (errorLines.get(0).matches("^File (.+) does not exist.$")) {
-				setMarker(file, errorLines.get(0));
-				return errorString.toString();
 			}
-			
-			// ===== Now the warnings than can occur more than once =====
-			
-			//	/home/john/repositories/gf-eclipse-plugin/workspace-demo/Hello/HelloEng.gf:9:
-			//	Happened in the renaming of Recipient
-			//	   constant not found: Gender
-			//	   given ResEng, HelloEng
-			int i = 0;
-			Pattern pattern = Pattern.compile("([^/\\\\]+\\.gf):(\\d+)(-(\\d+))?:$");
-			Matcher matcher;
-			while (i < errorLines.size()) {
-				matcher = pattern.matcher(errorLines.get(i++));
-				if (matcher.find()) {
-					Integer lineNo = Integer.parseInt(matcher.group(2));
-//					Integer lineTo = Integer.parseInt(matcher.group(4));
-
-					// Cosume message until end of indentation
-					StringBuilder sb = new StringBuilder();
-					sb.append(errorLines.get(i++));
-					while (true) {
-						if (i >= errorLines.size() || !errorLines.get(i).startsWith("   "))
-							break;
-						sb.append("\n").append(errorLines.get(i++));
-					}
-					setMarker(file, sb.toString(), lineNo);
-				}
+		}
+		return new ArrayList<GFBuildResult>(results.values());
+	}
+	
+	/**
+	 * Find which file in a batch a diagnostic belongs to
+	 * @param results results for the batch, by file name
+	 * @param defaultResult result to use for messages without a file name, if any
+	 * @param diagnostic
+	 * @return the result, or <code>null</code> if it can't be told
+	 */
+	private static GFBuildResult getResult(Map<String, GFBuildResult> results, GFBuildResult defaultResult, GFDiagnostic diagnostic) {
+		GFBuildResult result = (diagnostic.getFileName() != null) ? results.get(diagnostic.getFileName()) : null;
+		return (result == null) ? defaultResult : result;
+	}
+	
+	/**
+	 * Add a problem to a file's result and queue it for the marker updater
+	 * @param result may be <code>null</code>, in which case the problem is dropped
+	 * @param diagnostic
+	 */
+	private void report(GFBuildResult result, GFDiagnostic diagnostic) {
+		log.debug(diagnostic);
+		if (diagnostic.isSyntaxError()) {
+			return; // already reported by the editor
+		}
+		if (result != null) {
+			result.addProblem(diagnostic);
+			pendingProblems.add(Tuples.create(result.getFile(), diagnostic));
+		}
+	}
+	
+	/**
+	 * Use the reply from a GF shell, if it accounts for what happened to each file: either its tags file
+	 * was written, or there is an error in it (files GF didn't get round to because of an error in another
+	 * are left unbuilt). Then all the messages in the reply are reported, including warnings.
+	 * Otherwise, e.g. if there is an error which can't be tied to a file, nothing is changed.
+	 *
+	 * @param diagnostics the messages parsed from the shell's reply
+	 * @param results results for the batch, by file name
+	 * @param defaultResult result to use for messages without a file name, if any
+	 * @param tagsMTimes modification times of the tags files before compiling
+	 * @return true if the reply was used
+	 */
+	private boolean useShellOutput(List<GFDiagnostic> diagnostics, Map<String, GFBuildResult> results, GFBuildResult defaultResult, Map<IFile, Long> tagsMTimes) {
+		// Files with errors must not have been written, and there must be no other errors
+		Set<GFBuildResult> failed = new HashSet<GFBuildResult>();
+		for (GFDiagnostic diagnostic : diagnostics) {
+			if (diagnostic.getSeverity() != GFDiagnostic.Severity.ERROR)
+				continue;
+			GFBuildResult result = getResult(results, defaultResult, diagnostic);
+			if (result == null || isRebuilt(result.getFile(), tagsMTimes))
+				return false;
+			failed.add(result);
+		}
+		
+		// Without any errors, everything must have been written
+		if (failed.isEmpty()) {
+			for (GFBuildResult result : results.values()) {
+				if (!isRebuilt(result.getFile(), tagsMTimes))
+					return false;
 			}
-		} catch (IndexOutOfBoundsException e) {
-			log.info("Unrecognized error format when building: " + file.getFullPath(), e);
-		} catch (NullPointerException e) {
-			log.info("Unrecognized error format when building: " + file.getFullPath(), e);
-		}		
-		return errorString.toString();
+		}
+		
+		for (GFDiagnostic diagnostic : diagnostics) {
+			report(getResult(results, defaultResult, diagnostic), diagnostic);
+		}
+		markRebuilt(results.values(), tagsMTimes);
+		return true;
 	}
-
+	
 	/**
-	 * Add a marker to a file
-	 * @param file
-	 * @param message
+	 * Mark as successful those results whose tags files have been written since the given times,
+	 * and which have no errors
+	 * @param results
+	 * @param tagsMTimes modification times of the tags files before compiling
+	 * @return number of files successfully built
 	 */
-	private void setMarker(IFile file, String message) {
-		setMarker(file, message, null);
+	private int markRebuilt(Collection<GFBuildResult> results, Map<IFile, Long> tagsMTimes) {
+		int count = 0;
+		for (GFBuildResult result : results) {
+			IFile file = result.getFile();
+			if (!result.hasErrors() && isRebuilt(file, tagsMTimes)) {
+				result.setSuccess(true);
+				count++;
+			}
+		}
+		return count;
 	}
-
+	
 	/**
-	 * Add a marker to a file, including line number
+	 * Check whether a file's tags file has been written since the given time
 	 * @param file
-	 * @param message
-	 * @param lineNo
+	 * @param tagsMTimes modification times of the tags files before compiling
+	 * @return
 	 */
-	private void setMarker(IFile file, String message, Integer lineNo) {
-		IMarker marker;
-		try {
-			marker = file.createMarker("org.eclipse.xtext.ui.check.normal"); // Instead of IMarker.PROBLEM
-			marker.setAttribute(IMarker.USER_EDITABLE, false);
-			marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
-			marker.setAttribute(IMarker.LOCATION, file.getFullPath().toString());
-			if (message != null)
-				marker.setAttribute(IMarker.MESSAGE, message);
-			if (lineNo != null)
-				marker.setAttribute(IMarker.LINE_NUMBER, lineNo);
-		} catch (CoreException e) {
-			log.warn("Error creating marker on: " + file.getFullPath(), e);
-		}
-
+	private static boolean isRebuilt(IFile file, Map<IFile, Long> tagsMTimes) {
+		return GFBuilderHelper.getTagsFileMTime(file) > tagsMTimes.get(file);
 	}
 	
 }
@@ -11,9 +11,8 @@ package org.grammaticalframework.eclipse.builder;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
@@ -26,7 +25,6 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.ProjectScope;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.Path;
-import org.eclipse.core.runtime.QualifiedName;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
 import org.eclipse.emf.common.util.URI;
 import org.grammaticalframework.eclipse.scoping.GFTagsFileException;
@@ -115,39 +113,38 @@ public class GFBuilderHelper {
 	 */
 	public static Set<String> getDependenciesFromTagsFile(IFile file) {
 		boolean includeSelf = false;
-		String tagsFileName = getTagsFileNameRelative(file.getName());
+		// Read directly from disk, since the workspace may not have been refreshed since the tags were written
+		File tagsFile = new File(getTagsFileFullPath(file));
+		if (!tagsFile.exists()) return null;
 		try {
-			IFile tagsFile = (IFile)file.getParent().findMember(tagsFileName);
-			if (tagsFile == null) return null;
-			InputStream is = tagsFile.getContents(true);
-			BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+			BufferedReader reader = new BufferedReader(new FileReader(tagsFile));
 			HashSet<String> importSet = new HashSet<String>();
-			String line;
-			while ((line = reader.readLine()) != null) {
-				TagEntry tag;
-				try {
-					tag = new TagEntry(line);
-					importSet.add(tag.getModuleName());
-				} catch (GFTagsFileException e) {
-					// The tags file is malformed somehow
-					continue;
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					TagEntry tag;
+					try {
+						tag = new TagEntry(line);
+						importSet.add(tag.getModuleName());
+					} catch (GFTagsFileException e) {
+						// The tags file is malformed somehow
+						continue;
+					}
 				}
+			} finally {
+				// Clean up
+				reader.close();
 			}
-			// Clean up
-			reader.close();
-			is.close();
 			
 			// Remove self
-			String moduleName = file.getName().substring(0, file.getName().length()-file.getFileExtension().length()-1);
+			String moduleName = getModuleNameFromFile(file);
 			if (!includeSelf && importSet.contains(moduleName)) {
 				importSet.remove(moduleName);
 			}
 				
 			return importSet;
 		} catch (IOException e) {
-			log.warn("Error reading tags file "+tagsFileName, e);
-		} catch (CoreException e) {
-			log.warn("Error reading tags file "+tagsFileName, e);
+			log.warn("Error reading tags file "+tagsFile, e);
 		}
 		return null;
 	}
@@ -179,41 +176,6 @@ public class GFBuilderHelper {
 		}
 	}
 	
-	// General qualifier for stuff we do here
-	private static String qual = "org.grammaticalframework.eclipse";
-	
-	/**
-	 * To aid the build process, we save a list of all modulenames a file imports using
-	 * the Eclipse IResource properties. These methods are all concerned with this.
-	 */
-	private static QualifiedName importsPropertyKey = new QualifiedName(qual, "imports");
-	public static Set<String> getFileImports(IResource file) {
-		try {
-			@SuppressWarnings("unchecked")
-			Set<String> ret = (Set<String>)file.getSessionProperty(importsPropertyKey);
-			return ret;
-		} catch (ClassCastException e) {
-			// They were saved incorrectly! Clear them to be safe
-			clearFileImports(file);
-		} catch (CoreException e) {
-		}
-		return null;
-	}
-	public static void saveFileImports(IResource file, Set<String> imports) {
-		try {
-			file.setSessionProperty(importsPropertyKey, imports);
-		} catch (CoreException e) {
-			
-		}		
-	}
-	public static void clearFileImports(IResource file) {
-		try {
-			file.setSessionProperty(importsPropertyKey, null);
-		} catch (CoreException e) {
-			
-		}		
-	}
-
 	/**
 	 * Plugin ID
 	 */
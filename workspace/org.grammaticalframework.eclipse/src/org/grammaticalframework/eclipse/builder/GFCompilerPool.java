@@ -0,0 +1,285 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of long-running GF shells, so that the builder does not need to start a new
+ * process (and reload all the libraries) for every file it compiles.
+ *
+ * A pool is tied to a particular GF executable and library path; when either of these
+ * change in the preferences, the old pool is shut down and a new one is created.
+ * Shells which die or stop responding are discarded and replaced on demand.
+ */
+public class GFCompilerPool {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFCompilerPool.class);
+
+	/**
+	 * How long to wait for a single compilation before assuming the shell has hung (ms)
+	 */
+	public static final long REQUEST_TIMEOUT = 5 * 60 * 1000;
+
+	/**
+	 * The current pool
+	 */
+	private static GFCompilerPool instance = null;
+
+	/**
+	 * Known GF versions, by path to executable
+	 */
+	private static final Map<String, String> versions = new HashMap<String, String>();
+	private static final Map<String, Long> versionStamps = new HashMap<String, Long>();
+
+	private final String gfPath;
+	private final String gfLibPath;
+	private final int maxSize;
+	private final LinkedBlockingQueue<GFShellProcess> idle = new LinkedBlockingQueue<GFShellProcess>();
+	private final List<GFShellProcess> all = new ArrayList<GFShellProcess>();
+	private boolean disabled = false;
+	private int mismatches = 0;
+
+	/**
+	 * How many times the shell may fail on a file which compiles fine on its own,
+	 * before we stop using the pool
+	 */
+	private static final int MAX_MISMATCHES = 3;
+
+	private GFCompilerPool(String gfPath, String gfLibPath, int maxSize) {
+		this.gfPath = gfPath;
+		this.gfLibPath = gfLibPath;
+		this.maxSize = Math.max(1, maxSize);
+	}
+
+	/**
+	 * Get the pool for the given settings, replacing the existing one if the settings have changed.
+	 *
+	 * @param gfPath path to GF executable
+	 * @param gfLibPath value for --path flag, may be null
+	 * @return
+	 */
+	public static synchronized GFCompilerPool getInstance(String gfPath, String gfLibPath) {
+		if (instance != null && (!equal(instance.gfPath, gfPath) || !equal(instance.gfLibPath, gfLibPath))) {
+			instance.shutdown();
+			instance = null;
+		}
+		if (instance == null) {
+			instance = new GFCompilerPool(gfPath, gfLibPath, GFBuildScheduler.getDefaultPoolSize());
+		}
+		return instance;
+	}
+
+	/**
+	 * Stop all shells. Called when the plugin is stopped.
+	 */
+	public static synchronized void shutdownAll() {
+		if (instance != null) {
+			instance.shutdown();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Compile some files with the --tags flag using one of the shells in the pool.
+	 *
+	 * @param workingDir
+	 * @param fileNames
+	 * @param outputDir
+	 * @param parser fed the output of the compiler as it arrives
+	 * @return false if no shell could be used, in which case the parser may have been fed part of the output
+	 * @throws InterruptedException
+	 */
+	public boolean compileTags(String workingDir, List<String> fileNames, String outputDir, GFDiagnosticParser parser) throws InterruptedException {
+		GFShellProcess shell = acquire();
+		if (shell == null)
+			return false;
+		try {
+			shell.compileTags(workingDir, fileNames, outputDir, parser, REQUEST_TIMEOUT * fileNames.size());
+			release(shell);
+			return true;
+		} catch (IOException e) {
+			log.warn("GF shell failed, restarting: " + e.getMessage());
+			discard(shell);
+			return false;
+		} catch (InterruptedException e) {
+			// We don't know what state it's in
+			discard(shell);
+			throw e;
+		}
+	}
+
+	/**
+	 * Report that a file which could not be compiled by the shell compiled fine with a single process.
+	 * If this keeps happening, the shell is not behaving as we expect and the pool is disabled.
+	 */
+	public synchronized void reportMismatch() {
+		if (++mismatches >= MAX_MISMATCHES && !disabled) {
+			log.warn("GF shell output does not match the compiler, falling back to single processes");
+			shutdown();
+		}
+	}
+
+	/**
+	 * Get an idle shell, starting a new one if the pool isn't full yet.
+	 * Dead shells are thrown away.
+	 *
+	 * @return a shell, or <code>null</code> if shells cannot be started
+	 * @throws InterruptedException
+	 */
+	private GFShellProcess acquire() throws InterruptedException {
+		while (true) {
+			GFShellProcess shell = idle.poll();
+			if (shell == null) {
+				synchronized (this) {
+					if (disabled)
+						return null;
+					if (all.size() < maxSize) {
+						shell = start();
+						if (shell == null)
+							return null;
+					}
+				}
+				if (shell == null) {
+					// Wait for one to be released, but check again in case shells were discarded meanwhile
+					shell = idle.poll(1, TimeUnit.SECONDS);
+					if (shell == null)
+						continue;
+				}
+			}
+			if (shell.isAlive())
+				return shell;
+			discard(shell);
+		}
+	}
+
+	/**
+	 * Start a new shell and add it to the pool
+	 * @return
+	 */
+	private synchronized GFShellProcess start() {
+		ArrayList<String> command = new ArrayList<String>();
+		command.add(gfPath);
+		command.add("--v=0");
+		if (gfLibPath != null && !gfLibPath.isEmpty()) {
+			command.add("--path=" + gfLibPath);
+		}
+		try {
+			GFShellProcess shell = new GFShellProcess(command);
+			all.add(shell);
+			log.debug("Started GF shell " + all.size() + "/" + maxSize);
+			return shell;
+		} catch (IOException e) {
+			// Don't keep trying
+			log.warn("Cannot start GF shell, falling back to single processes", e);
+			disabled = true;
+			return null;
+		}
+	}
+
+	private void release(GFShellProcess shell) {
+		idle.add(shell);
+	}
+
+	private synchronized void discard(GFShellProcess shell) {
+		all.remove(shell);
+		shell.destroy();
+	}
+
+	/**
+	 * Stop all shells in this pool
+	 */
+	private synchronized void shutdown() {
+		disabled = true;
+		for (GFShellProcess shell : all) {
+			shell.destroy();
+		}
+		all.clear();
+		idle.clear();
+	}
+
+	/**
+	 * Get the version string of the GF executable at the given path.
+	 * This is only determined once for each executable, unless the executable changes.
+	 *
+	 * @param gfPath
+	 * @return version string, or <code>null</code> if GF cannot be run
+	 */
+	public static String getVersion(String gfPath) {
+		long stamp = new File(gfPath).lastModified();
+		synchronized (versions) {
+			if (versions.containsKey(gfPath) && versionStamps.get(gfPath) == stamp) {
+				return versions.get(gfPath);
+			}
+		}
+		String version = runVersion(gfPath);
+		if (version != null) {
+			synchronized (versions) {
+				versions.put(gfPath, version);
+				versionStamps.put(gfPath, stamp);
+			}
+		}
+		return version;
+	}
+
+	/**
+	 * Actually run <code>gf --version</code>
+	 * @param gfPath
+	 * @return
+	 */
+	private static String runVersion(String gfPath) {
+		try {
+			// Put together call
+			ArrayList<String> command = new ArrayList<String>();
+			command.add(gfPath);
+			command.add("--version");
+
+			// Execute command
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.redirectErrorStream(true);
+			Process proc = pb.start();
+
+			// Consume all output
+			BufferedReader processOutput = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+			String out_str;
+			StringBuilder out = new StringBuilder();
+			while ((out_str = processOutput.readLine()) != null) {
+				out.append(out_str).append("\n");
+			}
+
+			return (proc.waitFor() == 0) ? out.toString().trim() : null;
+
+		} catch (IOException e) {
+			return null;
+		} catch (InterruptedException e) {
+			log.error("GF test interrupted");
+			return null;
+		}
+	}
+
+	private static boolean equal(String a, String b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+}
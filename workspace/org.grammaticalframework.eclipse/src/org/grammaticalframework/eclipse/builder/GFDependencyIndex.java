@@ -0,0 +1,447 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Index of which source files import which modules, in both directions,
+ * built from the tags files of a project.
+ *
+ * Used to find all the modules which need to be rebuilt when a module changes.
+ * The index is saved in the project's build folder so that it survives restarts;
+ * it is only rebuilt from the tags files when the saved copy is missing or outdated.
+ * When a saved index is loaded, the files whose tags have changed since it was saved
+ * (e.g. by running GF outside Eclipse, or checking out other versions) are read again.
+ *
+ * There is one instance per project, used by the builder (the scoping has its own check of
+ * the tags files, since it also depends on those of libraries outside the project).
+ * Instances are dropped when their project is closed or deleted, see {@link #startListening()}.
+ */
+public class GFDependencyIndex {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFDependencyIndex.class);
+
+	/**
+	 * Name of index file, inside project's build folder
+	 */
+	public static final String INDEX_FILE = "dependencies";
+
+	/**
+	 * First line of index file. Change the version to invalidate existing files.
+	 */
+	private static final String HEADER = "gf-dependencies 1";
+
+	/**
+	 * Loaded indexes, by project
+	 */
+	private static final Map<IProject, GFDependencyIndex> instances = new HashMap<IProject, GFDependencyIndex>();
+
+	/**
+	 * Drops the index of a project which is being closed or deleted,
+	 * so that a project later opened or created with the same name starts afresh
+	 */
+	private static final IResourceChangeListener projectListener = new IResourceChangeListener() {
+		public void resourceChanged(IResourceChangeEvent event) {
+			if (!(event.getResource() instanceof IProject))
+				return;
+			GFDependencyIndex index;
+			synchronized (instances) {
+				index = instances.remove(event.getResource());
+			}
+			if (index != null && event.getType() == IResourceChangeEvent.PRE_CLOSE) {
+				index.save();
+			}
+		}
+	};
+
+	private final IProject project;
+
+	/**
+	 * Modules imported by each file
+	 */
+	private final Map<IFile, Set<String>> imports = new HashMap<IFile, Set<String>>();
+
+	/**
+	 * Modification time of each file's tags when its imports were recorded
+	 */
+	private final Map<IFile, Long> stamps = new HashMap<IFile, Long>();
+
+	/**
+	 * Files importing each module
+	 */
+	private final Map<String, Set<IFile>> importers = new HashMap<String, Set<IFile>>();
+
+	private boolean dirty = false;
+
+	/**
+	 * Has the index been read or scanned yet?
+	 */
+	private boolean loaded = false;
+
+	private GFDependencyIndex(IProject project) {
+		this.project = project;
+	}
+
+	/**
+	 * Get the index for a project, loading it if necessary
+	 * @param project
+	 * @return
+	 */
+	public static GFDependencyIndex getInstance(IProject project) {
+		GFDependencyIndex index;
+		synchronized (instances) {
+			index = instances.get(project);
+			if (index == null) {
+				index = new GFDependencyIndex(project);
+				instances.put(project, index);
+			}
+		}
+		// Outside the global lock, so that loading one project doesn't hold up any others
+		index.load();
+		return index;
+	}
+
+	/**
+	 * Read the saved index, or scan the project if there is none.
+	 * Whoever asks for the index meanwhile waits until it has been loaded.
+	 */
+	private synchronized void load() {
+		if (loaded)
+			return;
+		if (read()) {
+			validate();
+		} else {
+			scan();
+		}
+		loaded = true;
+	}
+
+	/**
+	 * Start dropping the indexes of projects when they are closed or deleted.
+	 * Called when the plugin is started.
+	 */
+	public static void startListening() {
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(projectListener,
+				IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+	}
+
+	/**
+	 * Stop listening to the workspace and forget all loaded indexes.
+	 * Called when the plugin is stopped.
+	 */
+	public static void stopListening() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(projectListener);
+		synchronized (instances) {
+			instances.clear();
+		}
+	}
+
+	/**
+	 * Location of the saved index
+	 * @return
+	 */
+	private File getIndexFile() {
+		return project.getFolder(GFBuilder.BUILD_FOLDER).getFile(INDEX_FILE).getLocation().toFile();
+	}
+
+	/**
+	 * Read the saved index from disk
+	 * @return false if there is no usable saved index
+	 */
+	private synchronized boolean read() {
+		File indexFile = getIndexFile();
+		if (!indexFile.exists())
+			return false;
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+			try {
+				if (!HEADER.equals(reader.readLine())) {
+					log.info("Ignoring dependency index with old format");
+					return false;
+				}
+				String line;
+				while ((line = reader.readLine()) != null) {
+					// path <tab> stamp <tab> module module ...
+					String[] fields = line.split("\t", -1);
+					if (fields.length != 3)
+						continue;
+					IFile file = project.getFile(Path.fromPortableString(fields[0]));
+					HashSet<String> modules = new HashSet<String>();
+					for (String module : fields[2].split(" ")) {
+						if (!module.isEmpty())
+							modules.add(module);
+					}
+					put(file, modules, Long.parseLong(fields[1]));
+				}
+			} finally {
+				reader.close();
+			}
+			dirty = false;
+			log.debug("Read dependency index for " + project.getName() + ": " + imports.size() + " files");
+			return true;
+		} catch (IOException e) {
+			log.warn("Error reading dependency index " + indexFile, e);
+		} catch (NumberFormatException e) {
+			log.warn("Malformed dependency index " + indexFile, e);
+		}
+		clear();
+		return false;
+	}
+
+	/**
+	 * Bring a saved index up to date with the tags files on disk: files whose tags have been
+	 * written since it was saved, or which weren't in it, are read again, and files which
+	 * no longer exist are dropped.
+	 */
+	private synchronized void validate() {
+		final HashSet<IFile> seen = new HashSet<IFile>();
+		final int[] updated = new int[1];
+		try {
+			project.accept(new IResourceVisitor() {
+				public boolean visit(IResource resource) {
+					if (resource.getType() == IResource.FOLDER && resource.getName().equals(GFBuilder.BUILD_FOLDER)) {
+						return false;
+					}
+					if (resource.getType() == IResource.FILE && "gf".equals(resource.getFileExtension())) {
+						IFile file = (IFile) resource;
+						seen.add(file);
+						Long stamp = stamps.get(file);
+						long mtime = GFBuilderHelper.getTagsFileMTime(file);
+						if ((stamp == null) ? mtime != 0 : stamp.longValue() != mtime) {
+							update(file);
+							updated[0]++;
+						}
+					}
+					return true;
+				}
+			});
+		} catch (CoreException e) {
+			log.warn("Error scanning project " + project.getName(), e);
+		}
+		for (IFile file : new ArrayList<IFile>(imports.keySet())) {
+			if (!seen.contains(file)) {
+				remove(file);
+				updated[0]++;
+			}
+		}
+		if (updated[0] > 0) {
+			log.debug("Updated dependency index for " + project.getName() + ": " + updated[0] + " files changed");
+		}
+	}
+
+	/**
+	 * Build the index by reading the tags files of all the source files in the project.
+	 * Files which have not been built yet are left out, and are added as they are built.
+	 */
+	private synchronized void scan() {
+		try {
+			project.accept(new IResourceVisitor() {
+				public boolean visit(IResource resource) {
+					if (resource.getType() == IResource.FOLDER && resource.getName().equals(GFBuilder.BUILD_FOLDER)) {
+						return false;
+					}
+					if (resource.getType() == IResource.FILE && "gf".equals(resource.getFileExtension())) {
+						update((IFile) resource);
+					}
+					return true;
+				}
+			});
+		} catch (CoreException e) {
+			log.warn("Error scanning project " + project.getName(), e);
+		}
+		log.debug("Scanned dependency index for " + project.getName() + ": " + imports.size() + " files");
+	}
+
+	/**
+	 * Write the index to disk, if anything has changed.
+	 * The file is written under a temporary name first and then renamed, so that it is never half-written.
+	 */
+	public synchronized void save() {
+		if (!dirty)
+			return;
+		File indexFile = getIndexFile();
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try {
+			indexFile.getParentFile().mkdirs();
+			BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile));
+			try {
+				writer.write(HEADER);
+				writer.newLine();
+				for (Map.Entry<IFile, Set<String>> entry : imports.entrySet()) {
+					IFile file = entry.getKey();
+					writer.write(file.getProjectRelativePath().toPortableString());
+					writer.write('\t');
+					writer.write(String.valueOf(stamps.get(file)));
+					writer.write('\t');
+					boolean first = true;
+					for (String module : entry.getValue()) {
+						if (!first)
+							writer.write(' ');
+						writer.write(module);
+						first = false;
+					}
+					writer.newLine();
+				}
+			} finally {
+				writer.close();
+			}
+			if (!tmpFile.renameTo(indexFile)) {
+				// Windows won't rename over an existing file
+				indexFile.delete();
+				if (!tmpFile.renameTo(indexFile))
+					throw new IOException("Cannot rename " + tmpFile);
+			}
+			dirty = false;
+		} catch (IOException e) {
+			log.warn("Error writing dependency index " + indexFile, e);
+		}
+	}
+
+	/**
+	 * Forget everything, e.g. when the project is cleaned
+	 */
+	public synchronized void clear() {
+		imports.clear();
+		stamps.clear();
+		importers.clear();
+		dirty = true;
+	}
+
+	/**
+	 * Re-read the imports of a file from its tags file, e.g. after building it
+	 * @param file
+	 * @return the imported modules, or <code>null</code> if the file has no tags file
+	 */
+	public synchronized Set<String> update(IFile file) {
+		Set<String> modules = GFBuilderHelper.getDependenciesFromTagsFile(file);
+		if (modules == null) {
+			remove(file);
+		} else {
+			put(file, modules, GFBuilderHelper.getTagsFileMTime(file));
+		}
+		return modules;
+	}
+
+	private void put(IFile file, Set<String> modules, long stamp) {
+		remove(file);
+		imports.put(file, modules);
+		stamps.put(file, stamp);
+		for (String module : modules) {
+			Set<IFile> files = importers.get(module);
+			if (files == null) {
+				files = new HashSet<IFile>();
+				importers.put(module, files);
+			}
+			files.add(file);
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Forget about a file (e.g. because it has been deleted)
+	 * @param file
+	 */
+	public synchronized void remove(IFile file) {
+		Set<String> old = imports.remove(file);
+		stamps.remove(file);
+		if (old == null)
+			return;
+		for (String module : old) {
+			Set<IFile> files = importers.get(module);
+			if (files != null) {
+				files.remove(file);
+				if (files.isEmpty())
+					importers.remove(module);
+			}
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Get the modules imported by a file
+	 * @param file
+	 * @return <code>null</code> if not known
+	 */
+	public synchronized Set<String> getImports(IFile file) {
+		Set<String> modules = imports.get(file);
+		return (modules == null) ? null : Collections.unmodifiableSet(modules);
+	}
+
+	/**
+	 * Get the files which import a module directly
+	 * @param moduleName
+	 * @return
+	 */
+	public synchronized Set<IFile> getImporters(String moduleName) {
+		Set<IFile> files = importers.get(moduleName);
+		return (files == null) ? Collections.<IFile>emptySet() : new HashSet<IFile>(files);
+	}
+
+	/**
+	 * Get all the files which depend on any of the given files, directly or indirectly.
+	 * Each file appears only once; the given files themselves are not included
+	 * unless they depend on each other.
+	 *
+	 * @param files
+	 * @return
+	 */
+	public synchronized Set<IFile> getDependents(Collection<IFile> files) {
+		LinkedHashSet<IFile> dependents = new LinkedHashSet<IFile>();
+		HashSet<String> visited = new HashSet<String>();
+		LinkedList<String> queue = new LinkedList<String>();
+		for (IFile file : files) {
+			queue.add(GFBuilderHelper.getModuleNameFromFile(file));
+		}
+		while (!queue.isEmpty()) {
+			String module = queue.removeFirst();
+			if (!visited.add(module))
+				continue;
+			Set<IFile> direct = importers.get(module);
+			if (direct == null)
+				continue;
+			for (IFile importer : direct) {
+				if (dependents.add(importer)) {
+					queue.add(GFBuilderHelper.getModuleNameFromFile(importer));
+				}
+			}
+		}
+		return dependents;
+	}
+
+}
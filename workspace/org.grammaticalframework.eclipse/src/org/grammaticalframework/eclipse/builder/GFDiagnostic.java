@@ -0,0 +1,130 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single message from the GF compiler, as produced by {@link GFDiagnosticParser}.
+ */
+public class GFDiagnostic {
+
+	public enum Severity {
+		ERROR,
+		WARNING,
+	}
+
+	private final String fileName;
+	private final Integer lineFrom;
+	private final Integer lineTo;
+	private final Severity severity;
+	private final String message;
+	private final List<String> relatedModules;
+	private final boolean syntaxError;
+
+	public GFDiagnostic(String fileName, Integer lineFrom, Integer lineTo, Severity severity, String message, List<String> relatedModules, boolean syntaxError) {
+		this.fileName = fileName;
+		this.lineFrom = lineFrom;
+		this.lineTo = lineTo;
+		this.severity = severity;
+		this.message = message;
+		this.relatedModules = (relatedModules == null) ? Collections.<String>emptyList() : relatedModules;
+		this.syntaxError = syntaxError;
+	}
+
+	/**
+	 * Diagnostic not tied to any location
+	 * @param message
+	 */
+	public GFDiagnostic(String message) {
+		this(null, null, null, Severity.ERROR, message, null, false);
+	}
+
+	/**
+	 * Name of the file the message refers to (without directory)
+	 * @return file name, or <code>null</code> if the message doesn't say
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+	public Integer getLineFrom() {
+		return lineFrom;
+	}
+	public Integer getLineTo() {
+		return lineTo;
+	}
+	public Severity getSeverity() {
+		return severity;
+	}
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Modules mentioned in the "given ..." part of the message, i.e. those in scope when the problem occurred
+	 * @return
+	 */
+	public List<String> getRelatedModules() {
+		return relatedModules;
+	}
+
+	/**
+	 * Syntax errors are also found by the editor's own parser
+	 * @return
+	 */
+	public boolean isSyntaxError() {
+		return syntaxError;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (fileName != null) {
+			sb.append(fileName);
+			if (lineFrom != null) {
+				sb.append(':').append(lineFrom);
+				if (lineTo != null && !lineTo.equals(lineFrom))
+					sb.append('-').append(lineTo);
+			}
+			sb.append(": ");
+		}
+		sb.append(severity).append(": ").append(message);
+		return sb.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		int h = message.hashCode();
+		h = 31 * h + severity.hashCode();
+		h = 31 * h + (fileName == null ? 0 : fileName.hashCode());
+		h = 31 * h + (lineFrom == null ? 0 : lineFrom.hashCode());
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof GFDiagnostic))
+			return false;
+		GFDiagnostic other = (GFDiagnostic) obj;
+		return message.equals(other.message)
+				&& severity == other.severity
+				&& equal(fileName, other.fileName)
+				&& equal(lineFrom, other.lineFrom)
+				&& equal(lineTo, other.lineTo);
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+}
@@ -0,0 +1,204 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental parser for the messages GF writes to stderr.
+ * Lines are fed in one at a time as they are read from the process, and each
+ * complete message is passed to the listener as soon as it is recognised.
+ * Only the message currently being parsed is held in memory.
+ *
+ * Message shapes handled:
+ * <pre>
+ * /path/HelloEng.gf:9:                      (location, optionally a range 9-12 or a column 9:17)
+ *   Happened in the renaming of Recipient   (first line, always part of the message)
+ *      constant not found: Gender           (indented lines continue the message)
+ *      given ResEng, HelloEng               (modules in scope)
+ *
+ * module name Wkbx differs from file name Wkb
+ *
+ * File ParadXXigmsEng.gf does not exist.
+ * searched in: ./                           (search path, ignored)
+ *              /home/john/.cabal/share/gf-3.3/lib
+ * </pre>
+ * Anything else is reported as an error without a location, one message per block of lines.
+ *
+ * Not thread-safe; use one instance per stream.
+ */
+public class GFDiagnosticParser {
+
+	/**
+	 * Receives diagnostics as they are parsed
+	 */
+	public interface Listener {
+		void diagnostic(GFDiagnostic diagnostic);
+	}
+
+	private static final Pattern LOCATION = Pattern.compile("([^/\\\\]+\\.gf):(\\d+)(?:-(\\d+))?(?::\\d+)?:\\s*$");
+	private static final Pattern MODULE_NAME = Pattern.compile("^module name (.+) differs from file name (.+)$");
+	private static final Pattern FILE_NOT_FOUND = Pattern.compile("^File (.+) does not exist\\.?$");
+	private static final Pattern SEARCHED_IN = Pattern.compile("^searched in:");
+	private static final Pattern GIVEN = Pattern.compile("^\\s+given (.+)$");
+	private static final Pattern WARNING = Pattern.compile("^\\s*Warning:");
+
+	private enum State {
+		/** Between messages */
+		IDLE,
+		/** Seen a location, expecting first line of message */
+		HEADER,
+		/** Inside a located message */
+		MESSAGE,
+		/** Skipping the search path after a missing file */
+		SEARCH_PATH,
+		/** Inside a block of unrecognised lines */
+		UNKNOWN,
+	}
+
+	private final Listener listener;
+	private State state = State.IDLE;
+	private int count = 0;
+
+	// Message being built
+	private String fileName;
+	private Integer lineFrom;
+	private Integer lineTo;
+	private GFDiagnostic.Severity severity;
+	private final StringBuilder message = new StringBuilder();
+	private List<String> related;
+
+	public GFDiagnosticParser(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Process a single line of output
+	 * @param line
+	 */
+	public void line(String line) {
+		switch (state) {
+		case HEADER:
+			if (WARNING.matcher(line).find())
+				severity = GFDiagnostic.Severity.WARNING;
+			append(line);
+			state = State.MESSAGE;
+			return;
+
+		case MESSAGE:
+			if (isContinuation(line)) {
+				Matcher given = GIVEN.matcher(line);
+				if (given.find()) {
+					for (String module : given.group(1).split(",")) {
+						related.add(module.trim());
+					}
+				}
+				append(line);
+				return;
+			}
+			flush();
+			break;
+
+		case SEARCH_PATH:
+			if (isContinuation(line) || SEARCHED_IN.matcher(line).find())
+				return;
+			state = State.IDLE;
+			break;
+
+		case UNKNOWN:
+			if (!line.trim().isEmpty() && !LOCATION.matcher(line).find()) {
+				append(line);
+				return;
+			}
+			flush();
+			break;
+
+		default:
+			break;
+		}
+
+		// Start of a new message
+		if (line.trim().isEmpty())
+			return;
+		Matcher m = LOCATION.matcher(line);
+		if (m.find()) {
+			start(State.HEADER);
+			fileName = m.group(1);
+			lineFrom = Integer.valueOf(m.group(2));
+			lineTo = (m.group(3) != null) ? Integer.valueOf(m.group(3)) : lineFrom;
+			return;
+		}
+		if (MODULE_NAME.matcher(line).find()) {
+			emit(new GFDiagnostic(line));
+			return;
+		}
+		if (FILE_NOT_FOUND.matcher(line).find()) {
+			emit(new GFDiagnostic(line));
+			state = State.SEARCH_PATH;
+			return;
+		}
+		start(State.UNKNOWN);
+		append(line);
+	}
+
+	/**
+	 * Signal the end of the output, emitting any message still being parsed
+	 */
+	public void finish() {
+		if (state == State.HEADER || state == State.MESSAGE || state == State.UNKNOWN)
+			flush();
+		state = State.IDLE;
+	}
+
+	/**
+	 * @return number of diagnostics produced so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	private static boolean isContinuation(String line) {
+		return line.length() > 0 && Character.isWhitespace(line.charAt(0));
+	}
+
+	private void start(State newState) {
+		state = newState;
+		fileName = null;
+		lineFrom = lineTo = null;
+		severity = GFDiagnostic.Severity.ERROR;
+		message.setLength(0);
+		related = new ArrayList<String>();
+	}
+
+	private void append(String line) {
+		if (message.length() > 0)
+			message.append('\n');
+		message.append(line);
+	}
+
+	private void flush() {
+		if (message.length() > 0) {
+			String text = message.toString();
+			boolean syntaxError = text.trim().equals("syntax error");
+			emit(new GFDiagnostic(fileName, lineFrom, lineTo, severity, text, related, syntaxError));
+		}
+		message.setLength(0);
+		state = State.IDLE;
+	}
+
+	private void emit(GFDiagnostic diagnostic) {
+		count++;
+		listener.diagnostic(diagnostic);
+	}
+
+}
@@ -0,0 +1,260 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.QualifiedName;
+
+/**
+ * Keeps the compiler markers on source files in line with the diagnostics of the current build.
+ *
+ * Rather than deleting all markers before compiling a file and creating them again one by one,
+ * changes are collected and applied together in a single workspace operation, so that listeners
+ * (editors, the Problems view) are only notified once. Markers which are still valid are left alone.
+ *
+ * Only markers created by the builder are touched; these are recognised by their source ID.
+ * Markers left by earlier versions of the builder, which had none, are removed once for each project.
+ * Not thread-safe; used from the builder thread only.
+ */
+public class GFMarkerUpdater {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFMarkerUpdater.class);
+
+	/**
+	 * Type of markers created
+	 */
+	public static final String MARKER_TYPE = "org.eclipse.xtext.ui.check.normal"; // Instead of IMarker.PROBLEM
+
+	/**
+	 * Identifies markers created by the builder
+	 */
+	public static final String SOURCE_ID = "org.grammaticalframework.eclipse.builder";
+
+	/**
+	 * Set on a project once the markers of earlier versions of the builder have been removed
+	 */
+	private static final QualifiedName LEGACY_REMOVED = new QualifiedName(SOURCE_ID, "legacyMarkersRemoved");
+
+	private final IProject project;
+
+	/**
+	 * Diagnostics for each file being built
+	 */
+	private final Map<IFile, Set<GFDiagnostic>> diagnostics = new LinkedHashMap<IFile, Set<GFDiagnostic>>();
+
+	/**
+	 * Diagnostics not yet turned into markers
+	 */
+	private final Map<IFile, List<GFDiagnostic>> added = new LinkedHashMap<IFile, List<GFDiagnostic>>();
+
+	/**
+	 * Files which are finished, whose old markers can be removed
+	 */
+	private final Set<IFile> finished = new LinkedHashSet<IFile>();
+
+	public GFMarkerUpdater(IProject project) {
+		this.project = project;
+	}
+
+	/**
+	 * Start collecting diagnostics for a file which is about to be built
+	 * @param file
+	 */
+	public void begin(IFile file) {
+		diagnostics.put(file, new LinkedHashSet<GFDiagnostic>());
+		finished.remove(file);
+	}
+
+	/**
+	 * Record a diagnostic for a file
+	 * @param file
+	 * @param diagnostic
+	 */
+	public void add(IFile file, GFDiagnostic diagnostic) {
+		Set<GFDiagnostic> set = diagnostics.get(file);
+		if (set == null) {
+			set = new LinkedHashSet<GFDiagnostic>();
+			diagnostics.put(file, set);
+		}
+		if (!set.add(diagnostic))
+			return; // duplicate
+		List<GFDiagnostic> list = added.get(file);
+		if (list == null) {
+			list = new ArrayList<GFDiagnostic>();
+			added.put(file, list);
+		}
+		list.add(diagnostic);
+	}
+
+	/**
+	 * Mark a file as finished; at the next flush, markers which don't correspond to its
+	 * diagnostics in this build are removed.
+	 * @param file
+	 */
+	public void finish(IFile file) {
+		finished.add(file);
+	}
+
+	/**
+	 * Remove the markers created by earlier versions of the builder, unless this has already
+	 * been done for the project. These had no source ID, and are told apart from the editor's
+	 * validation markers of the same type by their location, which was just the file's path.
+	 */
+	public void removeLegacyMarkers() {
+		try {
+			if (project.getPersistentProperty(LEGACY_REMOVED) != null)
+				return;
+			ResourcesPlugin.getWorkspace().run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor monitor) throws CoreException {
+					int count = 0;
+					for (IMarker marker : project.findMarkers(MARKER_TYPE, false, IResource.DEPTH_INFINITE)) {
+						if (marker.getAttribute(IMarker.SOURCE_ID, null) == null
+								&& marker.getResource().getFullPath().toString().equals(marker.getAttribute(IMarker.LOCATION, null))) {
+							marker.delete();
+							count++;
+						}
+					}
+					log.debug("Removed " + count + " old markers from " + project.getName());
+				}
+			}, project, IWorkspace.AVOID_UPDATE, null);
+			project.setPersistentProperty(LEGACY_REMOVED, Boolean.TRUE.toString());
+		} catch (CoreException e) {
+			log.warn("Error removing old markers", e);
+		}
+	}
+
+	/**
+	 * Apply all pending changes in a single workspace operation
+	 */
+	public void flush() {
+		if (added.isEmpty() && finished.isEmpty())
+			return;
+		try {
+			ResourcesPlugin.getWorkspace().run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor monitor) throws CoreException {
+					apply();
+				}
+			}, project, IWorkspace.AVOID_UPDATE, null);
+		} catch (CoreException e) {
+			log.warn("Error updating markers", e);
+		}
+	}
+
+	private void apply() throws CoreException {
+		// Create new markers, unless an identical one is already there
+		for (Map.Entry<IFile, List<GFDiagnostic>> entry : added.entrySet()) {
+			IFile file = entry.getKey();
+			if (!file.exists())
+				continue;
+			Set<String> existing = new HashSet<String>();
+			for (IMarker marker : findMarkers(file)) {
+				existing.add(getKey(marker));
+			}
+			for (GFDiagnostic diagnostic : entry.getValue()) {
+				if (!existing.contains(getKey(diagnostic))) {
+					createMarker(file, diagnostic);
+				}
+			}
+		}
+		added.clear();
+
+		// Remove markers which are no longer valid
+		for (IFile file : finished) {
+			if (!file.exists())
+				continue;
+			Set<String> valid = new HashSet<String>();
+			Set<GFDiagnostic> set = diagnostics.remove(file);
+			if (set != null) {
+				for (GFDiagnostic diagnostic : set) {
+					valid.add(getKey(diagnostic));
+				}
+			}
+			for (IMarker marker : findMarkers(file)) {
+				if (!valid.contains(getKey(marker))) {
+					marker.delete();
+				}
+			}
+		}
+		finished.clear();
+	}
+
+	/**
+	 * Find the markers created by the builder on a file
+	 * @param file
+	 * @return
+	 * @throws CoreException
+	 */
+	private List<IMarker> findMarkers(IFile file) throws CoreException {
+		List<IMarker> markers = new ArrayList<IMarker>();
+		for (IMarker marker : file.findMarkers(MARKER_TYPE, false, IResource.DEPTH_ZERO)) {
+			if (SOURCE_ID.equals(marker.getAttribute(IMarker.SOURCE_ID, null))) {
+				markers.add(marker);
+			}
+		}
+		return markers;
+	}
+
+	private void createMarker(IFile file, GFDiagnostic diagnostic) throws CoreException {
+		IMarker marker = file.createMarker(MARKER_TYPE);
+		marker.setAttributes(
+			new String[] {
+				IMarker.SOURCE_ID,
+				IMarker.USER_EDITABLE,
+				IMarker.SEVERITY,
+				IMarker.LOCATION,
+				IMarker.MESSAGE,
+				IMarker.LINE_NUMBER,
+			},
+			new Object[] {
+				SOURCE_ID,
+				false,
+				getSeverity(diagnostic),
+				file.getFullPath().toString(),
+				diagnostic.getMessage(),
+				diagnostic.getLineFrom(),
+			});
+	}
+
+	private static int getSeverity(GFDiagnostic diagnostic) {
+		return (diagnostic.getSeverity() == GFDiagnostic.Severity.WARNING) ? IMarker.SEVERITY_WARNING : IMarker.SEVERITY_ERROR;
+	}
+
+	/**
+	 * Key for comparing existing markers with diagnostics
+	 */
+	private static String getKey(IMarker marker) {
+		return marker.getAttribute(IMarker.SEVERITY, -1) + ":" + marker.getAttribute(IMarker.LINE_NUMBER, -1) + ":" + marker.getAttribute(IMarker.MESSAGE, "");
+	}
+	private static String getKey(GFDiagnostic diagnostic) {
+		Integer line = diagnostic.getLineFrom();
+		return getSeverity(diagnostic) + ":" + (line == null ? -1 : line) + ":" + diagnostic.getMessage();
+	}
+
+}
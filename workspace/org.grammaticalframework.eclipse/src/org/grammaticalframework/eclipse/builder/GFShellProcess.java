@@ -0,0 +1,198 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.builder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A long-running GF shell, driven over stdin/stdout.
+ *
+ * Each request is followed by a <code>ps</code> command printing a unique sentinel,
+ * so that everything the shell outputs before the sentinel is the response to that request.
+ * Standard error is merged into standard output so that messages stay in order.
+ *
+ * Instances are not thread-safe; see {@link GFCompilerPool}.
+ */
+public class GFShellProcess {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFShellProcess.class);
+
+	/**
+	 * Prefix for sentinel lines
+	 */
+	private static final String SENTINEL_PREFIX = "--gf-eclipse-done-";
+
+	/**
+	 * Marks end of stream in the line queue
+	 */
+	private static final String EOF = new String("EOF");
+
+	private final Process process;
+	private final BufferedWriter stdin;
+	private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+	private int requestCount = 0;
+	private boolean broken = false;
+
+	/**
+	 * Start a new GF shell
+	 * @param command the command for starting GF, not including the shell flags
+	 * @throws IOException
+	 */
+	public GFShellProcess(List<String> command) throws IOException {
+		ArrayList<String> cmd = new ArrayList<String>(command);
+		cmd.add("--run"); // batch mode, no prompt or banner
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.redirectErrorStream(true);
+		process = pb.start();
+		stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+
+		// Consume output in a separate thread, so that we can time out waiting for it
+		Thread reader = new Thread("GF shell reader") {
+			@Override
+			public void run() {
+				try {
+					BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
+					String line;
+					while ((line = br.readLine()) != null) {
+						lines.add(line);
+					}
+				} catch (IOException e) {
+					// process has gone away
+				} finally {
+					lines.add(EOF);
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Compile some source files with the --tags flag.
+	 *
+	 * @param workingDir directory containing the source files
+	 * @param fileNames names of source files
+	 * @param outputDir where to write tags files
+	 * @param parser fed everything output by the shell while compiling, as it is read
+	 * @param timeout maximum time to wait, in milliseconds
+	 * @throws IOException if the shell died or did not respond in time; the process is then unusable
+	 * @throws InterruptedException
+	 */
+	public void compileTags(String workingDir, List<String> fileNames, String outputDir, GFDiagnosticParser parser, long timeout) throws IOException, InterruptedException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("cd ").append(quote(workingDir)).append("\n");
+		sb.append("import -tags -output-dir=").append(quote(outputDir));
+		for (String fileName : fileNames) {
+			sb.append(" ").append(quote(fileName));
+		}
+		sb.append("\n");
+		request(sb.toString(), parser, timeout);
+	}
+
+	/**
+	 * Send some commands and pass all the output until the sentinel to a parser, line by line.
+	 * The parser is only finished when the sentinel is reached.
+	 *
+	 * @param commands shell commands, separated by newlines
+	 * @param parser
+	 * @param timeout maximum time to wait, in milliseconds
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void request(String commands, GFDiagnosticParser parser, long timeout) throws IOException, InterruptedException {
+		if (!isAlive()) {
+			throw new IOException("GF shell is not running");
+		}
+		String sentinel = SENTINEL_PREFIX + (requestCount++);
+		try {
+			stdin.write(commands);
+			stdin.write("ps \"" + sentinel + "\"\n");
+			stdin.flush();
+		} catch (IOException e) {
+			broken = true;
+			throw e;
+		}
+
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			long remaining = deadline - System.currentTimeMillis();
+			String line = (remaining > 0) ? lines.poll(remaining, TimeUnit.MILLISECONDS) : null;
+			if (line == null) {
+				broken = true;
+				throw new IOException("GF shell did not respond within " + timeout + "ms");
+			}
+			if (line == EOF) {
+				broken = true;
+				throw new IOException("GF shell terminated unexpectedly");
+			}
+			if (line.equals(sentinel)) {
+				parser.finish();
+				return;
+			}
+			parser.line(line);
+		}
+	}
+
+	/**
+	 * @return true if this process can still accept requests
+	 */
+	public boolean isAlive() {
+		if (broken)
+			return false;
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Stop the shell
+	 */
+	public void destroy() {
+		broken = true;
+		try {
+			stdin.close();
+		} catch (IOException e) {
+		}
+		process.destroy();
+		log.debug("Stopped GF shell");
+	}
+
+	/**
+	 * Quote a path for the GF shell, if needed
+	 * @param s
+	 * @return
+	 */
+	private static String quote(String s) {
+		if (s.endsWith(File.separator) && s.length() > 1)
+			s = s.substring(0, s.length() - 1);
+		if (s.indexOf(' ') < 0)
+			return s;
+		return "\"" + s.replace("\"", "\\\"") + "\"";
+	}
+
+}
@@ -9,6 +9,7 @@ import java.util.List;
 
 /**
  * Consume process output stream in a separate thread
+ * If a parser is given, lines are passed to it as they arrive instead of being kept.
  * 
  * @see http://www.javaworld.com/javaworld/jw-12-2000/jw-1229-traps.html?page=4
  */
@@ -16,10 +17,16 @@ public class StreamReader extends Thread {
 	InputStream is;
 	String type;
 	ArrayList<String> lines = new ArrayList<String>();
+	GFDiagnosticParser parser;
 
 	public StreamReader(InputStream is, String type) {
+		this(is, type, null);
+	}
+
+	public StreamReader(InputStream is, String type, GFDiagnosticParser parser) {
 		this.is = is;
 		this.type = type;
+		this.parser = parser;
 	}
 
 	@Override
@@ -29,10 +36,16 @@ public class StreamReader extends Thread {
 			BufferedReader br = new BufferedReader(isr);
 			String line = null;
 			while ((line = br.readLine()) != null) {
-				lines.add(line);
+				if (parser != null)
+					parser.line(line);
+				else
+					lines.add(line);
 			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
+		} finally {
+			if (parser != null)
+				parser.finish();
 		}
 	}
 	
@@ -0,0 +1,162 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.resource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.xtext.nodemodel.INode;
+import org.eclipse.xtext.nodemodel.util.NodeModelUtils;
+import org.eclipse.xtext.resource.IFragmentProvider;
+import org.eclipse.xtext.util.OnChangeEvictingCache;
+import org.grammaticalframework.eclipse.gF.Ident;
+import org.grammaticalframework.eclipse.gF.impl.GFFactoryImpl;
+import org.grammaticalframework.eclipse.naming.GFQualifiedNameProvider;
+import org.grammaticalframework.eclipse.scoping.GFDummyResources;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Fragment provider which also understands fragments pointing to a definition by name and line range,
+ * as given in a tags file, e.g. <code>tag:120:122:mkN</code>.
+ *
+ * This lets scopes built from tags refer to definitions in other modules through proxies,
+ * without having to parse those modules first. A module is only loaded when such a proxy
+ * is actually resolved, e.g. when jumping to a definition or showing its documentation.
+ * The exported identifiers of a module are indexed by name the first time one of them is resolved,
+ * so that resolving many references into the same module doesn't search it each time.
+ * If the definition can't be found in the module, a placeholder from {@link GFDummyResources} is used instead.
+ * All other fragments are handled as usual.
+ */
+public class GFFragmentProvider implements IFragmentProvider {
+
+	/**
+	 * Prefix of tag fragments, which can't be confused with EMF's path fragments or Xtext's lazy links
+	 */
+	public static final String TAG_PREFIX = "tag:";
+	
+	/**
+	 * Cache for the index of each resource, cleared when the resource changes
+	 */
+	@Inject
+	private OnChangeEvictingCache cache;
+
+	/**
+	 * Create a fragment for a definition
+	 * @param ident name of identifier, unqualified
+	 * @param lineFrom first line of definition, or a negative number if unknown
+	 * @param lineTo last line of definition, or a negative number if unknown
+	 * @return
+	 */
+	public static String createFragment(String ident, int lineFrom, int lineTo) {
+		return TAG_PREFIX + lineFrom + ":" + lineTo + ":" + URI.encodeFragment(ident, false);
+	}
+
+	/**
+	 * Create an unresolved identifier which points to a definition in a module
+	 * @param uri URI of the module, with a fragment created by {@link #createFragment}
+	 * @return
+	 */
+	public static Ident createProxy(URI uri) {
+		Ident proxy = GFFactoryImpl.eINSTANCE.createIdent();
+		((InternalEObject) proxy).eSetProxyURI(uri);
+		return proxy;
+	}
+
+	public String getFragment(EObject obj, Fallback fallback) {
+		return fallback.getFragment(obj);
+	}
+
+	public EObject getEObject(Resource resource, String fragment, Fallback fallback) {
+		if (!fragment.startsWith(TAG_PREFIX)) {
+			return fallback.getEObject(fragment);
+		}
+		int colon1 = fragment.indexOf(':', TAG_PREFIX.length());
+		int colon2 = (colon1 < 0) ? -1 : fragment.indexOf(':', colon1 + 1);
+		if (colon2 < 0) {
+			return null;
+		}
+		int lineFrom, lineTo;
+		try {
+			lineFrom = Integer.parseInt(fragment.substring(TAG_PREFIX.length(), colon1));
+			lineTo = Integer.parseInt(fragment.substring(colon1 + 1, colon2));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		String name = URI.decode(fragment.substring(colon2 + 1));
+		EObject definition = findDefinition(resource, name, lineFrom, lineTo);
+		if (definition == null) {
+			// Always trust the tags file, even if the source doesn't agree with it
+			return GFDummyResources.getIdent(resource.getURI(), name);
+		}
+		return definition;
+	}
+
+	/**
+	 * Find the exported identifier with a given name, preferring the one within the given lines
+	 * (there may be several, e.g. overloaded opers)
+	 * @param resource
+	 * @param name
+	 * @param lineFrom
+	 * @param lineTo
+	 * @return the identifier, or <code>null</code> if there is none with that name
+	 */
+	private EObject findDefinition(Resource resource, String name, int lineFrom, int lineTo) {
+		List<Ident> idents = getExportedIdents(resource).get(name);
+		if (idents == null)
+			return null;
+		if (lineFrom >= 0) {
+			for (Ident ident : idents) {
+				INode node = NodeModelUtils.getNode(ident);
+				if (node != null && node.getStartLine() >= lineFrom && node.getStartLine() <= lineTo)
+					return ident;
+			}
+		}
+		return idents.get(0);
+	}
+	
+	/**
+	 * Get the exported identifiers of a resource by name, in the order they appear
+	 * @param resource
+	 * @return
+	 */
+	private Map<String, List<Ident>> getExportedIdents(final Resource resource) {
+		return cache.get(GFFragmentProvider.class.getName(), resource, new Provider<Map<String, List<Ident>>>() {
+			public Map<String, List<Ident>> get() {
+				Map<String, List<Ident>> map = new HashMap<String, List<Ident>>();
+				TreeIterator<EObject> iter = resource.getAllContents();
+				while (iter.hasNext()) {
+					EObject eObj = iter.next();
+					if (!(eObj instanceof Ident))
+						continue;
+					Ident ident = (Ident) eObj;
+					if (ident.getS() == null || !GFQualifiedNameProvider.shouldBeExported(ident))
+						continue;
+					List<Ident> list = map.get(ident.getS());
+					if (list == null) {
+						list = new ArrayList<Ident>(1);
+						map.put(ident.getS(), list);
+					}
+					list.add(ident);
+				}
+				return map;
+			}
+		});
+	}
+
+}
@@ -11,12 +11,33 @@ package org.grammaticalframework.eclipse.resource;
 
 import org.apache.log4j.Logger;
 import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.xtext.naming.IQualifiedNameConverter;
 import org.eclipse.xtext.naming.QualifiedName;
 import org.eclipse.xtext.resource.EObjectDescription;
 import org.eclipse.xtext.resource.IEObjectDescription;
 import org.eclipse.xtext.resource.impl.DefaultResourceDescriptionStrategy;
 import org.eclipse.xtext.util.IAcceptor;
+import org.grammaticalframework.eclipse.gF.CatDef;
+import org.grammaticalframework.eclipse.gF.DataDef;
+import org.grammaticalframework.eclipse.gF.DefDef;
+import org.grammaticalframework.eclipse.gF.FunDef;
+import org.grammaticalframework.eclipse.gF.Ident;
+import org.grammaticalframework.eclipse.gF.Included;
+import org.grammaticalframework.eclipse.gF.Inst;
+import org.grammaticalframework.eclipse.gF.ListIncluded;
+import org.grammaticalframework.eclipse.gF.ListInst;
+import org.grammaticalframework.eclipse.gF.ListOpen;
+import org.grammaticalframework.eclipse.gF.ModBody;
+import org.grammaticalframework.eclipse.gF.ModContent;
+import org.grammaticalframework.eclipse.gF.ModType;
+import org.grammaticalframework.eclipse.gF.Open;
+import org.grammaticalframework.eclipse.gF.OperDef;
+import org.grammaticalframework.eclipse.gF.ParConstr;
+import org.grammaticalframework.eclipse.gF.ParamDef;
+import org.grammaticalframework.eclipse.gF.SourceModule;
+import org.grammaticalframework.eclipse.gF.TopDef;
+import org.grammaticalframework.eclipse.naming.GFQualifiedNameProvider;
 import com.google.inject.Inject;
 
 // TODO: Auto-generated Javadoc
@@ -131,27 +152,74 @@ public class GFResourceDescriptionStrategy extends
 	}
 */
 	
+	/**
+	 * Only idents directly under module headers and definitions can be exported
+	 * (see {@link GFQualifiedNameProvider#shouldBeExported(Ident)}), so nothing below these
+	 * is visited, e.g. the expressions making up the bodies of definitions.
+	 */
 	@Override
 	public boolean createEObjectDescriptions(EObject eObj, IAcceptor<IEObjectDescription> acceptor) {
-		if (getQualifiedNameProvider() == null)
-			return false;
-		try {
-			QualifiedName qualifiedName = getQualifiedNameProvider().getFullyQualifiedName(eObj);
-			if (qualifiedName != null) {
-				acceptor.accept(EObjectDescription.create(qualifiedName, eObj));
+		if (eObj instanceof Ident) {
+			Ident ident = (Ident) eObj;
+			try {
+				if (ident.getS() != null && GFQualifiedNameProvider.shouldBeExported(ident)) {
+					String moduleName = getModuleName(ident.eResource());
+					if (moduleName != null) {
+						QualifiedName qualifiedName = getConverter().toQualifiedName(moduleName + "." + ident.getS());
+						acceptor.accept(EObjectDescription.create(qualifiedName, ident));
+					}
+				}
+			} catch (Exception e) {
+				log.error(e);
 			}
-
-//			// Strategy: export any (and only) Top-Level definitions
-//			if (eObj instanceof TopDef) {
-//				// Handle everything reflectively
-//				for (EObject tld : ((TopDef)eObj).getDefinitions()) {
-//					handleTLD.invoke(tld, acceptor);
-//				}
-//			}			
-		} catch (Exception e) {
-			log.error(e);
+			return false;
 		}
-		return true;
-	}	
+		return mayContainExports(eObj);
+	}
+	
+	/**
+	 * Check whether an object may contain idents which should be exported
+	 * @param eObj
+	 * @return
+	 */
+	private boolean mayContainExports(EObject eObj) {
+		return eObj instanceof SourceModule
+			|| eObj instanceof ModType
+			|| eObj instanceof ModBody
+			|| eObj instanceof ModContent
+			|| eObj instanceof ListOpen
+			|| eObj instanceof Open
+			|| eObj instanceof ListInst
+			|| eObj instanceof Inst
+			|| eObj instanceof ListIncluded
+			|| eObj instanceof Included
+			|| eObj instanceof TopDef
+			|| eObj instanceof CatDef
+			|| eObj instanceof FunDef
+			|| eObj instanceof DefDef
+			|| eObj instanceof DataDef
+			|| eObj instanceof ParamDef
+			|| eObj instanceof ParConstr
+			|| eObj instanceof OperDef
+			// Idents whose grandparent is an oper are exported
+			|| eObj.eContainer() instanceof OperDef;
+	}
+	
+	/**
+	 * Get the name of the module in a resource, from its root rather than by climbing up from each ident
+	 * @param resource
+	 * @return the module name, or <code>null</code> if the resource doesn't have one
+	 */
+	private String getModuleName(Resource resource) {
+		if (resource == null || resource.getContents().isEmpty())
+			return null;
+		EObject root = resource.getContents().get(0);
+		if (!(root instanceof SourceModule))
+			return null;
+		ModType type = ((SourceModule) root).getType();
+		if (type == null || type.getName() == null)
+			return null;
+		return type.getName().getS();
+	}
 
 }
@@ -0,0 +1,150 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.scoping;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.xtext.naming.QualifiedName;
+import org.eclipse.xtext.resource.AbstractEObjectDescription;
+import org.eclipse.xtext.resource.IEObjectDescription;
+import org.grammaticalframework.eclipse.gF.GFPackage;
+import org.grammaticalframework.eclipse.gF.Ident;
+import org.grammaticalframework.eclipse.gF.impl.GFFactoryImpl;
+
+/**
+ * Placeholder identifiers for tags whose definitions can't be found, e.g. because the
+ * library sources are not installed.
+ *
+ * There is one resource per module URI, shared by all scopes, holding one identifier
+ * per name. Identifiers are only created when a description's object is actually asked for.
+ * The resources are softly referenced, so they can be reclaimed under memory pressure
+ * when no scope is using them.
+ */
+public class GFDummyResources {
+
+	/**
+	 * A resource and the identifiers in it
+	 */
+	private static class Holder {
+		final Resource resource;
+		final Map<String, Ident> idents = new HashMap<String, Ident>();
+		Holder(URI uri) {
+			resource = new ResourceSetImpl().createResource(uri);
+		}
+	}
+
+	/**
+	 * Soft reference which remembers its key, so that it can be removed from the map once cleared
+	 */
+	private static class HolderReference extends SoftReference<Holder> {
+		final URI uri;
+		HolderReference(URI uri, Holder holder, ReferenceQueue<Holder> queue) {
+			super(holder, queue);
+			this.uri = uri;
+		}
+	}
+
+	private static final Map<URI, HolderReference> holders = new HashMap<URI, HolderReference>();
+	private static final ReferenceQueue<Holder> queue = new ReferenceQueue<Holder>();
+
+	/**
+	 * Get the placeholder identifier for a name in a module, creating it if needed
+	 * @param uri URI of the module
+	 * @param name
+	 * @return
+	 */
+	public static synchronized Ident getIdent(URI uri, String name) {
+		purge();
+		HolderReference ref = holders.get(uri);
+		Holder holder = (ref == null) ? null : ref.get();
+		if (holder == null) {
+			holder = new Holder(uri);
+			holders.put(uri, new HolderReference(uri, holder, queue));
+		}
+		Ident ident = holder.idents.get(name);
+		if (ident == null) {
+			ident = GFFactoryImpl.eINSTANCE.createIdent();
+			ident.setS(name);
+			holder.resource.getContents().add(ident);
+			holder.idents.put(name, ident);
+		}
+		return ident;
+	}
+
+	/**
+	 * Remove entries whose resources have been reclaimed
+	 */
+	private static void purge() {
+		HolderReference ref;
+		while ((ref = (HolderReference) queue.poll()) != null) {
+			if (holders.get(ref.uri) == ref) {
+				holders.remove(ref.uri);
+			}
+		}
+	}
+
+	/**
+	 * Create a description for a placeholder identifier, which is only created when needed
+	 * @param name name of description
+	 * @param uri URI of the module
+	 * @param ident the identifier
+	 * @param userData
+	 * @return
+	 */
+	public static IEObjectDescription createDescription(QualifiedName name, URI uri, String ident, Map<String, String> userData) {
+		return new DummyDescription(name, uri, ident, userData);
+	}
+
+	private static class DummyDescription extends AbstractEObjectDescription {
+		private final QualifiedName name;
+		private final URI uri;
+		private final String ident;
+		private final Map<String, String> userData;
+
+		DummyDescription(QualifiedName name, URI uri, String ident, Map<String, String> userData) {
+			this.name = name;
+			this.uri = uri;
+			this.ident = ident;
+			this.userData = userData;
+		}
+
+		public QualifiedName getName() {
+			return name;
+		}
+		public QualifiedName getQualifiedName() {
+			return name;
+		}
+		public EObject getEObjectOrProxy() {
+			return getIdent(uri, ident);
+		}
+		public URI getEObjectURI() {
+			return EcoreUtil.getURI(getEObjectOrProxy());
+		}
+		public EClass getEClass() {
+			return GFPackage.Literals.IDENT;
+		}
+		public String getUserData(String key) {
+			return (userData == null) ? null : userData.get(key);
+		}
+		public String[] getUserDataKeys() {
+			return (userData == null) ? new String[0] : userData.keySet().toArray(new String[userData.size()]);
+		}
+	}
+
+}
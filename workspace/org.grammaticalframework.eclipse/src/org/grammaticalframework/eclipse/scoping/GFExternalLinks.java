@@ -0,0 +1,200 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.scoping;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceRuleFactory;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.emf.common.util.URI;
+
+/**
+ * Links in the workspace to external source files, e.g. those of the resource grammar library.
+ *
+ * Creating links (and the folder holding them) needs the workspace lock, so it is never done
+ * during scoping. Links which don't exist yet are queued and created together in a background job,
+ * and meanwhile a provisional file URI pointing straight to the external file is used.
+ * Scopes built with provisional URIs can tell that the links have since been created
+ * by checking {@link #getGeneration()}.
+ */
+public class GFExternalLinks {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFExternalLinks.class);
+
+	/**
+	 * Delay before creating links, so that those found while building one scope go in the same job
+	 */
+	private static final long DELAY = 200;
+
+	/**
+	 * Links to be created, by folder
+	 */
+	private static final Map<IFolder, Set<IPath>> pending = new HashMap<IFolder, Set<IPath>>();
+
+	/**
+	 * The job which will create the pending links
+	 */
+	private static LinkJob job = null;
+
+	/**
+	 * Incremented each time some links have been created
+	 */
+	private static volatile int generation = 0;
+
+	/**
+	 * Get the URI to use for an external file. If the link to it doesn't exist yet it is queued
+	 * for creation, and a provisional URI is returned.
+	 * Doesn't lock the workspace.
+	 *
+	 * The link's URI is absolute, since proxies pointing into it are resolved without
+	 * knowing which resource refers to them.
+	 *
+	 * @param externalPath
+	 * @param linkFolder
+	 * @return a platform URI to the link, or a file URI to the external file itself
+	 */
+	public static URI getURI(IPath externalPath, IFolder linkFolder) {
+		IFile link = linkFolder.getFile(externalPath.lastSegment());
+		if (link.exists()) {
+			return URI.createPlatformResourceURI(link.getFullPath().toString(), true);
+		}
+		add(linkFolder, externalPath);
+		return URI.createFileURI(externalPath.toOSString());
+	}
+
+	/**
+	 * Check whether a URI returned by {@link #getURI} is only provisional.
+	 * The scheme is tested explicitly, since {@link URI#isFile()} is also true for relative URIs.
+	 * @param uri
+	 * @return
+	 */
+	public static boolean isProvisional(URI uri) {
+		return "file".equals(uri.scheme()) && "gf".equals(uri.fileExtension());
+	}
+
+	/**
+	 * Get the number of batches of links created so far
+	 * @return
+	 */
+	public static int getGeneration() {
+		return generation;
+	}
+
+	private static synchronized void add(IFolder linkFolder, IPath externalPath) {
+		Set<IPath> paths = pending.get(linkFolder);
+		if (paths == null) {
+			paths = new LinkedHashSet<IPath>();
+			pending.put(linkFolder, paths);
+		}
+		if (!paths.add(externalPath)) {
+			return; // Already waiting
+		}
+
+		// Replace the job, so that its rule covers all the folders. If the old one has already
+		// started it just goes ahead with the folders it was given.
+		if (job != null) {
+			job.cancel();
+		}
+		job = new LinkJob(pending.keySet());
+		job.schedule(DELAY);
+	}
+
+	/**
+	 * Take the pending links in some folders
+	 * @param folders
+	 * @return
+	 */
+	private static synchronized Map<IFolder, Set<IPath>> take(Set<IFolder> folders) {
+		Map<IFolder, Set<IPath>> batch = new HashMap<IFolder, Set<IPath>>();
+		for (IFolder folder : folders) {
+			Set<IPath> paths = pending.remove(folder);
+			if (paths != null)
+				batch.put(folder, paths);
+		}
+		return batch;
+	}
+
+	/**
+	 * Job which creates links, together with the folders holding them
+	 */
+	private static class LinkJob extends WorkspaceJob {
+
+		private final Set<IFolder> folders;
+
+		LinkJob(Set<IFolder> folders) {
+			super("Linking external GF sources");
+			this.folders = new LinkedHashSet<IFolder>(folders);
+			setSystem(true);
+
+			IResourceRuleFactory ruleFactory = ResourcesPlugin.getWorkspace().getRuleFactory();
+			List<ISchedulingRule> rules = new ArrayList<ISchedulingRule>();
+			for (IFolder folder : this.folders) {
+				rules.add(ruleFactory.createRule(folder));
+			}
+			setRule(MultiRule.combine(rules.toArray(new ISchedulingRule[rules.size()])));
+		}
+
+		@Override
+		public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
+			Map<IFolder, Set<IPath>> batch = take(folders);
+			int count = 0;
+			for (Map.Entry<IFolder, Set<IPath>> entry : batch.entrySet()) {
+				IFolder folder = entry.getKey();
+				try {
+					if (!folder.exists()) {
+						folder.create(true, true, null);
+					}
+				} catch (CoreException e) {
+					log.warn("Couldn't create folder " + folder, e);
+					continue;
+				}
+				for (IPath externalPath : entry.getValue()) {
+					IFile link = folder.getFile(externalPath.lastSegment());
+					try {
+						if (!link.exists()) {
+							link.createLink(externalPath, IResource.NONE, null);
+							count++;
+						}
+					} catch (CoreException e) {
+						log.warn("Couldn't link to external file " + externalPath, e);
+					}
+				}
+			}
+			if (count > 0) {
+				synchronized (GFExternalLinks.class) {
+					generation++;
+				}
+				log.debug("Created " + count + " external links");
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+}
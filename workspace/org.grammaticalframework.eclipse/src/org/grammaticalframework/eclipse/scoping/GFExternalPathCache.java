@@ -0,0 +1,168 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.scoping;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.grammaticalframework.eclipse.GFPreferences;
+
+/**
+ * Process-wide cache of where the external source files mentioned in tags files are found.
+ *
+ * A source path from a tags file is used as it is if the file exists, otherwise it is looked
+ * for under the library source path preference. Checking this means a couple of stats per
+ * referenced module on every scope computation, which is slow when the library is on a
+ * network drive. Each result is remembered together with the modification times of the
+ * directories which were looked in, and is only used while those are unchanged
+ * (adding or removing a file changes its directory's time). Changing the library source
+ * path preference drops everything.
+ *
+ * Use a new {@link Lookup} for each batch of paths, so that each directory is only checked once.
+ */
+public class GFExternalPathCache {
+
+	private static final GFExternalPathCache instance = new GFExternalPathCache();
+
+	/**
+	 * Part of a path to replace with the library source path
+	 */
+	private static final Pattern LIB_SRC_PATTERN = Pattern.compile("^.+?lib[/\\\\]src[/\\\\]");
+
+	/**
+	 * Where a path was found, and the directories looked in
+	 */
+	private static class Resolution {
+		final String path;
+		final File[] dirs;
+		final long[] stamps;
+		Resolution(String path, File[] dirs, long[] stamps) {
+			this.path = path;
+			this.dirs = dirs;
+			this.stamps = stamps;
+		}
+	}
+
+	/**
+	 * Library source path which the cached resolutions were made with
+	 */
+	private String librarySourcePath = null;
+
+	private final Map<String, Resolution> resolutions = new HashMap<String, Resolution>();
+
+	/**
+	 * Get the shared instance
+	 * @return
+	 */
+	public static GFExternalPathCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Start resolving a batch of paths, with the current preferences
+	 * @return
+	 */
+	public Lookup startLookup() {
+		return new Lookup(GFPreferences.getLibrarySourcePath());
+	}
+
+	/**
+	 * A batch of lookups, during which each directory's modification time is only read once
+	 */
+	public class Lookup {
+		private final String librarySourcePath;
+		private final Map<File, Long> stamps = new HashMap<File, Long>();
+
+		private Lookup(String librarySourcePath) {
+			this.librarySourcePath = librarySourcePath;
+		}
+
+		/**
+		 * Find an external source file
+		 * @param path as given in a tags file
+		 * @return the path where the file exists, or <code>null</code> if it can't be found
+		 */
+		public String resolve(String path) {
+			synchronized (GFExternalPathCache.this) {
+				if (!equal(librarySourcePath, GFExternalPathCache.this.librarySourcePath)) {
+					resolutions.clear();
+					GFExternalPathCache.this.librarySourcePath = librarySourcePath;
+				}
+				Resolution resolution = resolutions.get(path);
+				if (resolution != null && isValid(resolution)) {
+					return resolution.path;
+				}
+			}
+
+			// Check outside the lock, since this may be slow
+			Resolution resolution = probe(path);
+			synchronized (GFExternalPathCache.this) {
+				if (equal(librarySourcePath, GFExternalPathCache.this.librarySourcePath)) {
+					resolutions.put(path, resolution);
+				}
+			}
+			return resolution.path;
+		}
+
+		private boolean isValid(Resolution resolution) {
+			for (int i = 0; i < resolution.dirs.length; i++) {
+				if (getStamp(resolution.dirs[i]) != resolution.stamps[i])
+					return false;
+			}
+			return true;
+		}
+
+		private long getStamp(File dir) {
+			Long stamp = stamps.get(dir);
+			if (stamp == null) {
+				stamp = dir.lastModified();
+				stamps.put(dir, stamp);
+			}
+			return stamp;
+		}
+
+		private Resolution probe(String path) {
+			File file = new File(path);
+			File dir = file.getAbsoluteFile().getParentFile();
+			long stamp = getStamp(dir);
+			if (file.exists()) {
+				return new Resolution(path, new File[]{ dir }, new long[]{ stamp });
+			}
+
+			// See if using the GF_LIB_SRC preference will help
+			if (librarySourcePath != null) {
+				Matcher matcher = LIB_SRC_PATTERN.matcher(file.getPath());
+				if (matcher.find()) {
+					File adjusted = new File(matcher.replaceFirst(Matcher.quoteReplacement(librarySourcePath)));
+					File adjustedDir = adjusted.getAbsoluteFile().getParentFile();
+					long adjustedStamp = getStamp(adjustedDir);
+					return new Resolution(adjusted.exists() ? adjusted.getPath() : null,
+							new File[]{ dir, adjustedDir }, new long[]{ stamp, adjustedStamp });
+				}
+			}
+			return new Resolution(null, new File[]{ dir }, new long[]{ stamp });
+		}
+	}
+
+	private static boolean equal(String a, String b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Forget everything
+	 */
+	public synchronized void clear() {
+		resolutions.clear();
+	}
+
+}
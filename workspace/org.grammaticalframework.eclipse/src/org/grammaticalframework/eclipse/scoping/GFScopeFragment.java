@@ -0,0 +1,356 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.scoping;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.xtext.naming.IQualifiedNameConverter;
+import org.eclipse.xtext.naming.QualifiedName;
+import org.eclipse.xtext.resource.AbstractEObjectDescription;
+import org.eclipse.xtext.resource.IEObjectDescription;
+import org.grammaticalframework.eclipse.gF.GFPackage;
+import org.grammaticalframework.eclipse.resource.GFFragmentProvider;
+
+import com.google.common.base.Predicate;
+
+/**
+ * The descriptions made from the tags of one module, which never change once created.
+ *
+ * Tags are only turned into object descriptions when a lookup could find something in them,
+ * so that opening a module which imports large libraries doesn't create descriptions for every
+ * identifier in them. Which names a fragment has is worked out cheaply from the tags themselves.
+ *
+ * Fragments made from a library's tags file can be shared by all the resources which open that
+ * library in the same way, see {@link #getShared} and {@link #share}. Shared fragments are only
+ * weakly held by the cache, so they go once no scope is using them.
+ */
+public class GFScopeFragment {
+
+	/**
+	 * Qualified name converter
+	 */
+	private static final IQualifiedNameConverter converter = new IQualifiedNameConverter.DefaultImpl();
+
+	private final boolean ignoreCase;
+
+	/**
+	 * The object descriptions
+	 */
+	private final ArrayList<IEObjectDescription> descriptions = new ArrayList<IEObjectDescription>();
+
+	/**
+	 * Tags not yet turned into descriptions, with what's needed to do so
+	 */
+	private Collection<TagEntry> pendingTags;
+	private URI pendingURI;
+	private Predicate<IEObjectDescription> pendingFilter;
+
+	/**
+	 * Names which this fragment may have descriptions for (lower case if ignoring case), built when first needed
+	 */
+	private Set<String> names;
+
+	/**
+	 * Descriptions by name (lower case if ignoring case), built when first needed
+	 */
+	private Map<String, List<IEObjectDescription>> index;
+
+	/**
+	 * Fragments shared with this one, kept alive for as long as any of them is in use
+	 */
+	@SuppressWarnings("unused")
+	private Group group;
+
+	/**
+	 * Create a fragment
+	 * @param uri URI of the module
+	 * @param tags the module's tags, which must not be modified afterwards
+	 * @param filter
+	 * @param ignoreCase
+	 */
+	public GFScopeFragment(URI uri, Collection<TagEntry> tags, Predicate<IEObjectDescription> filter, boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+		pendingURI = uri;
+		pendingTags = tags;
+		pendingFilter = filter;
+	}
+
+	/**
+	 * Add any pending tags
+	 */
+	private synchronized void materialise() {
+		if (pendingTags != null) {
+			createDescriptions(pendingURI, pendingTags, pendingFilter);
+			pendingTags = null;
+			pendingURI = null;
+			pendingFilter = null;
+		}
+	}
+
+	/**
+	 * Create a description for a tag, using a shared placeholder identifier if there are no sources
+	 * @param name
+	 * @param uri
+	 * @param tag
+	 * @return
+	 */
+	private IEObjectDescription createDescription(QualifiedName name, URI uri, TagEntry tag) {
+		if (GFScopingHelper.isDummyURI(uri)) {
+			return GFDummyResources.createDescription(name, uri, tag.getIdent(), tag.getProperties());
+		}
+		return new TagDescription(name, uri.appendFragment(getFragment(tag)), tag.getProperties());
+	}
+
+	private static String getFragment(TagEntry tag) {
+		Integer lineFrom = tag.getLineFrom();
+		Integer lineTo = tag.getLineTo();
+		return GFFragmentProvider.createFragment(tag.getIdent(),
+				(lineFrom == null) ? -1 : lineFrom,
+				(lineTo == null) ? -1 : lineTo);
+	}
+
+	/**
+	 * Description of a definition in another module, whose proxy is only created when needed
+	 */
+	private static class TagDescription extends AbstractEObjectDescription {
+		private final QualifiedName name;
+		private final URI uri;
+		private final Map<String, String> userData;
+		private EObject proxy;
+
+		TagDescription(QualifiedName name, URI uri, Map<String, String> userData) {
+			this.name = name;
+			this.uri = uri;
+			this.userData = userData;
+		}
+
+		public QualifiedName getName() {
+			return name;
+		}
+		public QualifiedName getQualifiedName() {
+			return name;
+		}
+		public synchronized EObject getEObjectOrProxy() {
+			if (proxy == null)
+				proxy = GFFragmentProvider.createProxy(uri);
+			return proxy;
+		}
+		public URI getEObjectURI() {
+			return uri;
+		}
+		public EClass getEClass() {
+			return GFPackage.Literals.IDENT;
+		}
+		public String getUserData(String key) {
+			return userData.get(key);
+		}
+		public String[] getUserDataKeys() {
+			return userData.keySet().toArray(new String[userData.size()]);
+		}
+	}
+
+	private void createDescriptions(URI uri, Collection<TagEntry> tags, Predicate<IEObjectDescription> filter) {
+		for (TagEntry tag : tags) {
+			QualifiedName trueQualifiedName = converter.toQualifiedName(tag.getTrueQualifiedName()); // qualified with ultimate module of definition
+
+			// The definition itself is only looked up in the source if the description is resolved
+			QualifiedName fullyQualifiedName = converter.toQualifiedName(tag.getQualifiedName());
+			IEObjectDescription eObjDesc = createDescription(fullyQualifiedName, uri, tag);
+			if (filter==null || filter.apply(eObjDesc)) {
+				descriptions.add(eObjDesc);
+			}
+
+			/*
+			 * Do it again for the alias, or if no alias then for the UNQUALIFIED name
+			 * Technically we can do without the else block, since TagEntry#getAliasQualifiedName() will
+			 * just return an unqualified name if no alias exists. But that makes for very unreadable code.
+			 */
+			if (tag.hasAlias() && !tag.getAlias().equals(tag.getQualifier())) {
+				QualifiedName aliasQualifiedName = converter.toQualifiedName(tag.getAliasQualifiedName());
+				eObjDesc = createDescription(aliasQualifiedName, uri, tag);
+				if (filter==null || filter.apply(eObjDesc)) {
+					descriptions.add(eObjDesc);
+				}
+			} else {
+				QualifiedName unQualifiedName = getUnQualifiedName(trueQualifiedName);
+				eObjDesc = createDescription(unQualifiedName, uri, tag);
+				if (filter==null || filter.apply(eObjDesc)) {
+					descriptions.add(eObjDesc);
+				}
+			}
+		}
+	}
+
+	private QualifiedName getUnQualifiedName(QualifiedName qn) {
+		return qn.skipFirst(qn.getSegmentCount()-1);
+	}
+
+	private String getKey(QualifiedName name) {
+		return ignoreCase ? name.toString().toLowerCase() : name.toString();
+	}
+	private String getKey(String name) {
+		return ignoreCase ? name.toLowerCase() : name;
+	}
+
+	/**
+	 * Get all the descriptions, creating them if necessary
+	 * @return
+	 */
+	synchronized List<IEObjectDescription> getDescriptions() {
+		materialise();
+		return Collections.unmodifiableList(descriptions);
+	}
+
+	/**
+	 * Get the descriptions for a name, creating them only if this fragment might have it
+	 * @param key
+	 * @return descriptions, or <code>null</code> if there are none
+	 */
+	synchronized List<IEObjectDescription> get(String key) {
+		if (!getNames().contains(key))
+			return null;
+		return getIndex().get(key);
+	}
+
+	/**
+	 * Check whether this fragment might have descriptions for a name, without creating them
+	 * @param key
+	 * @return
+	 */
+	boolean mayHave(String key) {
+		return getNames().contains(key);
+	}
+
+	/**
+	 * Get the names which this fragment may have descriptions for, without adding pending tags.
+	 * Follows the naming in {@link #createDescriptions}.
+	 * @return
+	 */
+	synchronized Set<String> getNames() {
+		if (names == null) {
+			names = new HashSet<String>();
+			for (IEObjectDescription desc : descriptions) {
+				names.add(getKey(desc.getName()));
+			}
+			if (pendingTags != null) {
+				for (TagEntry tag : pendingTags) {
+					names.add(getKey(tag.getQualifiedName()));
+					if (tag.hasAlias() && !tag.getAlias().equals(tag.getQualifier())) {
+						names.add(getKey(tag.getAliasQualifiedName()));
+					} else {
+						names.add(getKey(tag.getIdent()));
+					}
+				}
+			}
+		}
+		return names;
+	}
+
+	private synchronized Map<String, List<IEObjectDescription>> getIndex() {
+		materialise();
+		if (index == null) {
+			index = new HashMap<String, List<IEObjectDescription>>(descriptions.size());
+			for (IEObjectDescription desc : descriptions) {
+				String key = getKey(desc.getName());
+				List<IEObjectDescription> list = index.get(key);
+				if (list == null) {
+					list = new ArrayList<IEObjectDescription>(1);
+					index.put(key, list);
+				}
+				list.add(desc);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Fragments made together, e.g. from the same tags file
+	 */
+	private static class Group {
+		final Map<URI, GFScopeFragment> fragments;
+		Group(Map<URI, GFScopeFragment> fragments) {
+			this.fragments = fragments;
+		}
+	}
+
+	/**
+	 * Weak reference which remembers its key, so that it can be removed from the map once cleared
+	 */
+	private static class GroupReference extends WeakReference<Group> {
+		final Object key;
+		GroupReference(Object key, Group group, ReferenceQueue<Group> queue) {
+			super(group, queue);
+			this.key = key;
+		}
+	}
+
+	private static final Map<Object, GroupReference> shared = new HashMap<Object, GroupReference>();
+	private static final ReferenceQueue<Group> queue = new ReferenceQueue<Group>();
+
+	/**
+	 * Get shared fragments
+	 * @param key as given to {@link #share}
+	 * @return fragments by module URI, or <code>null</code> if there are none for this key (any more)
+	 */
+	public static synchronized Map<URI, GFScopeFragment> getShared(Object key) {
+		purge();
+		GroupReference ref = shared.get(key);
+		Group group = (ref == null) ? null : ref.get();
+		return (group == null) ? null : group.fragments;
+	}
+
+	/**
+	 * Share some fragments, which are kept for as long as any of them is in use
+	 * @param key identifying everything the fragments were made from
+	 * @param fragments fragments by module URI, which must not be modified afterwards
+	 */
+	public static synchronized void share(Object key, Map<URI, GFScopeFragment> fragments) {
+		purge();
+		Group group = new Group(Collections.unmodifiableMap(fragments));
+		for (GFScopeFragment fragment : fragments.values()) {
+			fragment.group = group;
+		}
+		shared.put(key, new GroupReference(key, group, queue));
+	}
+
+	/**
+	 * Remove entries whose fragments are no longer used
+	 */
+	private static void purge() {
+		GroupReference ref;
+		while ((ref = (GroupReference) queue.poll()) != null) {
+			if (shared.get(ref.key) == ref) {
+				shared.remove(ref.key);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of groups of fragments currently shared
+	 * @return
+	 */
+	public static synchronized int getSharedCount() {
+		purge();
+		return shared.size();
+	}
+
+}
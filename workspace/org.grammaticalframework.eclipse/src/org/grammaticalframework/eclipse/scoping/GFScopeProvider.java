@@ -11,13 +11,16 @@ package org.grammaticalframework.eclipse.scoping;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.apache.log4j.Logger;
 import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EReference;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.xtext.naming.IQualifiedNameConverter;
 import org.eclipse.xtext.naming.QualifiedName;
+import org.eclipse.xtext.resource.EObjectDescription;
 import org.eclipse.xtext.resource.IEObjectDescription;
 import org.eclipse.xtext.resource.ISelectable;
 import org.eclipse.xtext.scoping.IScope;
@@ -40,6 +43,7 @@ import org.grammaticalframework.eclipse.gF.TopDef;
 import org.grammaticalframework.eclipse.naming.GFQualifiedNameProvider;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 
@@ -94,7 +98,8 @@ public class GFScopeProvider extends SimpleLocalScopeProvider {
 	
 	/**
 	 * For a given reference, get the top-level local descriptions from the cache,
-	 * and combine with judgement-level arguments and bindings (not cached).
+	 * and layer the judgement-level arguments and bindings on top (also cached, per judgement).
+	 * Neither is copied.
 	 * 
 	 * @param resource
 	 * @param context
@@ -104,22 +109,53 @@ public class GFScopeProvider extends SimpleLocalScopeProvider {
 	private ISelectable getLocalScope(final Resource resource, final EObject context, final EReference reference) {
 		
 		// Top-level, with no context (cached)
-		ISelectable localResourceContent = cache.get(Tuples.pair(GFScopeProvider.class.getName(), reference), context.eResource(), new Provider<ISelectable>() {
+		ISelectable localResourceContent = cache.get(GFScopeProvider.class.getName(), resource, new Provider<ISelectable>() {
 			public ISelectable get() {
-				return getAllDescriptions(context.eResource());
+				return getAllDescriptions(resource);
 			}
 		});
 		
-		// Include refs local to the judgement, i.e. args and bindings (not cached)
-		Iterable<IEObjectDescription> judgementLevelRefs = getJudgementLevelDescriptions(context, reference);
+		// Include refs local to the judgement, i.e. args and bindings, indexed once per judgement until the resource changes
+		final EObject contextJudgement = getJudgement(context);
+		if (contextJudgement == null) {
+			return localResourceContent;
+		}
+		ISelectable judgementLevelContent = cache.get(Tuples.pair(GFScopeProvider.class.getName(), contextJudgement), resource, new Provider<ISelectable>() {
+			public ISelectable get() {
+				return new MultimapBasedSelectable(getJudgementLevelDescriptions(contextJudgement));
+			}
+		});
+		return new LayeredSelectable(localResourceContent, judgementLevelContent);
+	}
+	
+	/**
+	 * Selectable which looks in two others, without copying them.
+	 * Results from the lower one come first.
+	 */
+	private static class LayeredSelectable implements ISelectable {
+		private final ISelectable lower;
+		private final ISelectable upper;
+		
+		LayeredSelectable(ISelectable lower, ISelectable upper) {
+			this.lower = lower;
+			this.upper = upper;
+		}
 		
-		// Join together and return
-		ArrayList<IEObjectDescription> joinedList = new ArrayList<IEObjectDescription>(100);
-		for (IEObjectDescription ieod : localResourceContent.getExportedObjects())
-			joinedList.add(ieod);
-		for (IEObjectDescription ieod : judgementLevelRefs)
-			joinedList.add(ieod);
-		return new MultimapBasedSelectable(joinedList);
+		public boolean isEmpty() {
+			return lower.isEmpty() && upper.isEmpty();
+		}
+		public Iterable<IEObjectDescription> getExportedObjects() {
+			return Iterables.concat(lower.getExportedObjects(), upper.getExportedObjects());
+		}
+		public Iterable<IEObjectDescription> getExportedObjects(EClass type, QualifiedName name, boolean ignoreCase) {
+			return Iterables.concat(lower.getExportedObjects(type, name, ignoreCase), upper.getExportedObjects(type, name, ignoreCase));
+		}
+		public Iterable<IEObjectDescription> getExportedObjectsByType(EClass type) {
+			return Iterables.concat(lower.getExportedObjectsByType(type), upper.getExportedObjectsByType(type));
+		}
+		public Iterable<IEObjectDescription> getExportedObjectsByObject(EObject object) {
+			return Iterables.concat(lower.getExportedObjectsByObject(object), upper.getExportedObjectsByObject(object));
+		}
 	}
 	
 	/**
@@ -153,76 +189,83 @@ public class GFScopeProvider extends SimpleLocalScopeProvider {
 	}
 
 	/**
-	 * Get judgement-level descriptions for a given context/reference.
+	 * Find the judgement containing a context, i.e. the child of its TopDef OR OperDef
 	 *
 	 * @param context the context
-	 * @param reference the reference
-	 * @return the all descriptions
+	 * @return the judgement, or <code>null</code> if the context is not in one
 	 */
-	protected Iterable<IEObjectDescription> getJudgementLevelDescriptions(final EObject context, final EReference reference) {
-		
-		// Attempt to find the TopDef OR OperDefInnerDef for context
+	protected EObject getJudgement(EObject context) {
 		EObject temp = context;
 		while (temp.eContainer() != null && !(temp.eContainer() instanceof TopDef) && !(temp.eContainer() instanceof OperDef)) {
 			temp = temp.eContainer();
 		}
-		if (temp.eContainer() == null) {
-			return new ArrayList<IEObjectDescription>(0);
-		}
-		final EObject contextJudgement = temp;
-		
-		// Get all contents within the judgement and convert to iterable
+		return (temp.eContainer() == null) ? null : temp;
+	}
+	
+	/**
+	 * Get judgement-level descriptions, i.e. arguments, pattern variables, bindings and
+	 * "let" definitions, in a single pass over the judgement.
+	 *
+	 * @param contextJudgement the judgement, as found by {@link #getJudgement}
+	 * @return the all descriptions
+	 */
+	protected List<IEObjectDescription> getJudgementLevelDescriptions(final EObject contextJudgement) {
+		List<IEObjectDescription> descriptions = new ArrayList<IEObjectDescription>();
 		TreeIterator<EObject> contents = contextJudgement.eAllContents();
-		ArrayList<EObject> iterable = new ArrayList<EObject>(100);
 		while (contents.hasNext()) {
-			iterable.add(contents.next());
-		}
-		
-		// Filter
-		Iterable<IEObjectDescription> descriptions = Scopes.scopedElementsFor(iterable,
-				new Function<EObject, QualifiedName>() {
-					public QualifiedName apply(EObject from) {
-						EObject parent = from.eContainer();
-						EObject grandparent = parent.eContainer();
-						EObject greatgrandparent = grandparent.eContainer();
-						if (from instanceof Ident) {
-							Ident ident = ((Ident)from);
-							
-							// Explicitly avoid record fields
-							if (greatgrandparent instanceof Exp && ((Exp)greatgrandparent).isRecord()) {
-								return null;
-							}
-							
-							// Local variables
-							if (grandparent instanceof ListPatt && greatgrandparent instanceof DefDef) {
-								return getConverter().toQualifiedName(ident.getS());
-							}
-							if (parent instanceof Arg && (grandparent instanceof OperDef || grandparent instanceof LinDef )) {
-								return getConverter().toQualifiedName(ident.getS());
-							}
-							
-							// Bindings in pattern matching
-							// TODO: too general!
-							if (parent instanceof Patt) {
-								return getConverter().toQualifiedName(ident.getS());
-							}
-							
-							// Bindings (code very similar to that above)
-							if (grandparent instanceof ListBind) {
-								return getConverter().toQualifiedName(ident.getS());
-							}
-							
-							// Stuff in "let" clauses
-							if (grandparent instanceof ListLocDef) {
-								return getConverter().toQualifiedName(ident.getS());
-							}
-						}
-						
-						// We don't want it
-						return null;
-					}
-				});
+			EObject eObj = contents.next();
+			if (eObj instanceof Ident) {
+				Ident ident = (Ident) eObj;
+				if (ident.getS() != null && isBinding(ident)) {
+					descriptions.add(EObjectDescription.create(getConverter().toQualifiedName(ident.getS()), ident));
+				}
+				contents.prune(); // Nothing below an ident
+			}
+		}
 		return descriptions;
 	}
 	
+	/**
+	 * Check whether an ident inside a judgement introduces a local name
+	 * @param ident
+	 * @return
+	 */
+	private boolean isBinding(Ident ident) {
+		EObject parent = ident.eContainer();
+		EObject grandparent = parent.eContainer();
+		EObject greatgrandparent = (grandparent == null) ? null : grandparent.eContainer();
+		
+		// Explicitly avoid record fields
+		if (greatgrandparent instanceof Exp && ((Exp)greatgrandparent).isRecord()) {
+			return false;
+		}
+		
+		// Local variables
+		if (grandparent instanceof ListPatt && greatgrandparent instanceof DefDef) {
+			return true;
+		}
+		if (parent instanceof Arg && (grandparent instanceof OperDef || grandparent instanceof LinDef )) {
+			return true;
+		}
+		
+		// Bindings in pattern matching
+		// TODO: too general!
+		if (parent instanceof Patt) {
+			return true;
+		}
+		
+		// Bindings (code very similar to that above)
+		if (grandparent instanceof ListBind) {
+			return true;
+		}
+		
+		// Stuff in "let" clauses
+		if (grandparent instanceof ListLocDef) {
+			return true;
+		}
+		
+		// We don't want it
+		return false;
+	}
+	
 }
@@ -8,6 +8,7 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
@@ -71,6 +72,21 @@ public class GFScopingHelper {
 		return ((TopDef)temp);
 	}
 
+	/**
+	 * Get the location on disk of a platform or file URI
+	 * @param uri
+	 * @return the file, or <code>null</code> if the URI has no local location
+	 */
+	public static java.io.File getLocalFile(URI uri) {
+		if (uri.isFile())
+			return new java.io.File(uri.toFileString());
+		if (uri.isPlatformResource()) {
+			IPath location = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path(uri.toPlatformString(true))).getLocation();
+			return (location == null) ? null : location.toFile();
+		}
+		return null;
+	}
+
 	/**
 	 * Put together path to compiled tags file in the build folder.
 	 *
@@ -97,7 +113,8 @@ public class GFScopingHelper {
 	}
 	
 	/**
-	 * The the external folder for a tag file URI. Expected types of URI are:
+	 * The the external folder for a tag file URI. Does <strong>not</strong> create the folder if
+	 * it doesn't exist, this is left to {@link GFExternalLinks}. Expected types of URI are:
 	 * <ul>
 	 * 		<li><code>platform:/resource/Foods/.gfbuild/FoodsEng.gf-tags</code></li>
 	 * 		<li><code>file:/home/john/repositories/gf-eclipse-plugin/workspace-demo/Foods/.gfbuild/FoodsEng.gf-tags</code></li>
@@ -129,11 +146,6 @@ public class GFScopingHelper {
 			extFolder = res.getParent().getParent().getFolder(new Path(GFBuilder.EXTERNAL_FOLDER));
 		}
 		
-		// Create the folder if it doesn't exist
-		if (!extFolder.exists()) {
-			extFolder.create(true, true, null);
-		}
-		
 		return extFolder;
 	}
 }
@@ -10,36 +10,37 @@
 package org.grammaticalframework.eclipse.scoping;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
-import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
-import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
-import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.impl.ExtensibleURIConverterImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.internal.xtend.util.Pair;
 import org.eclipse.xtext.EcoreUtil2;
 import org.eclipse.xtext.resource.IEObjectDescription;
-import org.eclipse.xtext.resource.IResourceDescriptions;
 import org.eclipse.xtext.scoping.IScope;
 import org.eclipse.xtext.scoping.impl.AbstractGlobalScopeProvider;
-import org.eclipse.xtext.scoping.impl.LoadOnDemandResourceDescriptions;
 import org.eclipse.xtext.util.OnChangeEvictingCache;
 import org.grammaticalframework.eclipse.GFPreferences;
+import org.grammaticalframework.eclipse.builder.GFBuildCache;
 
 import com.google.common.base.Predicate;
 import com.google.inject.Inject;
@@ -63,64 +64,147 @@ public class GFTagBasedGlobalScopeProvider extends AbstractGlobalScopeProvider {
 	private ExtensibleURIConverterImpl uriConverter; 
 	
 	/**
-	 * Cache instance, automatically invalidated when file changes
+	 * Cache which is cleared whenever the resource is changed or relinked
 	 */
 	@Inject
 	private OnChangeEvictingCache cache;
 	
-	/**
-	 * 
-	 */
-	@Inject
-	private Provider<LoadOnDemandResourceDescriptions> loadOnDemandDescriptions;
-	
 	/* (non-Javadoc)
 	 * @see org.eclipse.xtext.scoping.impl.AbstractGlobalScopeProvider#getScope(org.eclipse.emf.ecore.resource.Resource, boolean, org.eclipse.emf.ecore.EClass, com.google.common.base.Predicate)
 	 */
 	@Override
 	protected IScope getScope(final Resource resource, final boolean ignoreCase, EClass type, final Predicate<IEObjectDescription> filter) {
-		return cache.get(GFTagBasedGlobalScopeProvider.class.getName(), resource, new Provider<IScope>(){
-			public IScope get() {
-				URITagMap uriTagMap = parseTagsFile(resource);
-				if (uriTagMap.isEmpty()) {
-					return IScope.NULLSCOPE;
+		// The scope comes entirely from the tags files, so it is kept for as long as they don't change,
+		// rather than being thrown away whenever the resource is edited
+		// The tags files themselves are only looked at again after the resource has changed or been relinked
+		// (e.g. after a build), not on every lookup
+		ScopeAdapter adapter = getScopeAdapter(resource);
+		Object checkToken = cache.get(ScopeAdapter.class.getName(), resource, new Provider<Object>() {
+			public Object get() {
+				return new Object();
+			}
+		});
+		synchronized (adapter) {
+			if (adapter.scope != null && adapter.ignoreCase == ignoreCase
+					&& (!adapter.provisional || adapter.linkGeneration == GFExternalLinks.getGeneration())) {
+				if (adapter.checkToken == checkToken) {
+					return adapter.scope;
 				}
-				
-				// Build scope out of tag map
-				GFTagBasedScope gfScope = null;
-				IResourceDescriptions resourceDescriptions = getResourceDescriptions(resource, uriTagMap.keySet());
-				for (Map.Entry<URI, Collection<TagEntry>> entry : uriTagMap.entrySet()) {
+				if (isUnchanged(adapter.tagsFiles)) {
+					adapter.checkToken = checkToken;
+					return adapter.scope;
+				}
+			}
+			
+			int linkGeneration = GFExternalLinks.getGeneration();
+			Map<File, String> tagsFiles = new LinkedHashMap<File, String>();
+			Map<URI, List<GFScopeFragment>> fragments = createFragments(resource, tagsFiles, filter, ignoreCase);
+			IScope scope = createScope(fragments, ignoreCase);
+			adapter.tagsFiles = tagsFiles;
+			adapter.ignoreCase = ignoreCase;
+			// If some external files are not linked yet, build the scope again once they are
+			adapter.provisional = false;
+			for (URI uri : fragments.keySet()) {
+				adapter.provisional |= GFExternalLinks.isProvisional(uri);
+			}
+			adapter.linkGeneration = linkGeneration;
+			adapter.scope = scope;
+			adapter.checkToken = checkToken;
+			return scope;
+		}
+	}
+	
+	/**
+	 * Cached global scope of a resource, together with the tags files it was built from
+	 * and the state of the resource when they were last checked
+	 */
+	private static class ScopeAdapter extends AdapterImpl {
+		IScope scope;
+		boolean ignoreCase;
+		Map<File, String> tagsFiles;
+		boolean provisional;
+		int linkGeneration;
+		Object checkToken;
+		@Override
+		public boolean isAdapterForType(Object type) {
+			return type == ScopeAdapter.class;
+		}
+	}
+	
+	private ScopeAdapter getScopeAdapter(Resource resource) {
+		synchronized (resource) {
+			ScopeAdapter adapter = (ScopeAdapter) EcoreUtil.getAdapter(resource.eAdapters(), ScopeAdapter.class);
+			if (adapter == null) {
+				adapter = new ScopeAdapter();
+				resource.eAdapters().add(adapter);
+			}
+			return adapter;
+		}
+	}
+	
+	/**
+	 * Check whether the content of some tags files is still the same.
+	 * Hashes are only recomputed for files whose size or modification time have changed.
+	 * @param tagsFiles files and their hashes
+	 * @return
+	 */
+	private boolean isUnchanged(Map<File, String> tagsFiles) {
+		for (Map.Entry<File, String> entry : tagsFiles.entrySet()) {
+			String hash = GFBuildCache.getFileHash(entry.getKey());
+			if (hash == null || !hash.equals(entry.getValue()))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Build the scope for a resource from its fragments
+	 * @param fragments
+	 * @param ignoreCase
+	 * @return
+	 */
+	private IScope createScope(Map<URI, List<GFScopeFragment>> fragments, boolean ignoreCase) {
+		if (log.isDebugEnabled()) {
+			log.debug("Tags cache: " + GFTagsCache.getInstance().getStatistics() + "; " + GFScopeFragment.getSharedCount() + " shared fragment groups");
+		}
+		if (fragments.isEmpty()) {
+			return IScope.NULLSCOPE;
+		}
+		
+		// Build scope out of fragments
+		GFTagBasedScope gfScope = null;
+		for (Map.Entry<URI, List<GFScopeFragment>> entry : fragments.entrySet()) {
 
-					URI uri = entry.getKey();
+			URI uri = entry.getKey();
 
-					// Get module name from URI
-					String lastSegment = uri.lastSegment();
-					int dotIx = lastSegment.lastIndexOf('.');
-					String moduleName = (dotIx > 0)	? lastSegment.substring(0, dotIx) : lastSegment;
+			// Get module name from URI
+			String lastSegment = uri.lastSegment();
+			int dotIx = lastSegment.lastIndexOf('.');
+			String moduleName = (dotIx > 0)	? lastSegment.substring(0, dotIx) : lastSegment;
 
-					// Append new scope for the current module/uri
-					gfScope = new GFTagBasedScope(gfScope, moduleName, ignoreCase);
-					gfScope.addTags(resourceDescriptions, uri, entry.getValue(), filter);
-				}
+			// Append new scope for the current module/uri, whose contents are only created when first needed
+			gfScope = new GFTagBasedScope(gfScope, moduleName, entry.getValue(), ignoreCase);
+		}
 
-				return (gfScope == null) ? IScope.NULLSCOPE : gfScope;
-			}
-		});
-		
+		return (gfScope == null) ? IScope.NULLSCOPE : gfScope;
 	}
 	
 	/**
-	 * For a given resource, find its tags file and get a list of the all the files mentioned
-	 * there, and return them as a list of unique URIs
+	 * For a given resource, find its tags file and get fragments for all the modules mentioned there.
+	 * Fragments for modules reached through other tags files (e.g. libraries) are shared with
+	 * other resources where possible.
 	 * 
 	 * @param resource
-	 * @return
-	 * @throws GFTagsFileException 
+	 * @param tagsFiles the tags files read are added to this, with their hashes
+	 * @param filter
+	 * @param ignoreCase
+	 * @return fragments by module URI
 	 */
-	private URITagMap parseTagsFile(final Resource resource) {
+	private Map<URI, List<GFScopeFragment>> createFragments(final Resource resource, Map<File, String> tagsFiles, Predicate<IEObjectDescription> filter, boolean ignoreCase) {
 		
 		// Find the corresponding tags file & parse it (1st pass)
 		URI tagFileURI = GFScopingHelper.getTagsFile(resource);
+		addLocalFile(tagsFiles, tagFileURI);
 		Predicate<TagEntry> includePredicate = new Predicate<TagEntry>() {
 			// Ignore references to self, ie local scope
 			public boolean apply(TagEntry tag) {
@@ -129,29 +213,21 @@ public class GFTagBasedGlobalScopeProvider extends AbstractGlobalScopeProvider {
 		};
 		URITagMap uriTagMap = parseSingleTagsFile(tagFileURI, includePredicate, null);
 		
-		// Iterate again to replace references to indir tags files with proper references (2nd pass)
-		URITagMap resolvedUriTagMap = new URITagMap(uriTagMap.size());
-//		Iterator<URI> uriIter = uriTagMap.keySet().iterator();
-		Iterator<Entry<URI, Collection<TagEntry>>> uriIter = uriTagMap.entrySet().iterator();
-		
-		while(uriIter.hasNext()) {
-			Entry<URI, Collection<TagEntry>> iterEntry = uriIter.next();
+		// Go through again to replace references to indir tags files with fragments from those files (2nd pass)
+		Map<URI, List<GFScopeFragment>> fragments = new LinkedHashMap<URI, List<GFScopeFragment>>();
+		for (Entry<URI, Collection<TagEntry>> iterEntry : uriTagMap.entrySet()) {
 			URI uri = iterEntry.getKey();
 			Collection<TagEntry> tagList = iterEntry.getValue();
 			
-			// Just remove invalid URIs
+			// Just skip invalid URIs
 			if (!EcoreUtil2.isValidUri(resource, uri)) {
-				uriIter.remove();
 				log.debug("Removed invalid URI: " + uri);
 			}
-			// Resolve refs to other tags files and replace, but making sure to keep original qualifier & alias
+			// Resolve refs to other tags files, but making sure to keep original qualifier & alias
 			else if (uri.fileExtension().equals("gf-tags")) {
 				
 				// Capture all the different qualifiers by iterating until the ident changes
 				Set<Pair<String, String>> qualifiers = new HashSet<Pair<String,String>>();
-//				for (TagEntry tag : tagList) {
-//					qualifiers.add(new Pair<String,String>(tag.getQualifier(), tag.getAlias()));
-//				}
 				// TODO This is possibly buggy when using selective inheritence
 				String lastIdent = null;
 				for (TagEntry tag : tagList) {
@@ -160,30 +236,89 @@ public class GFTagBasedGlobalScopeProvider extends AbstractGlobalScopeProvider {
 					lastIdent = tag.getIdent();
 				}
 				
-				Predicate<TagEntry> includePredicate2 = new Predicate<TagEntry>() {
-					// Only include tags FROM the respective tags file (opposite of above)
-					public boolean apply(TagEntry tag) {
-						return !tag.getFile().endsWith(".gf-tags") /*&& !tag.getType().equals("overload-type")*/ ;
-					}
-				};
-				URITagMap newUriTagMap = parseSingleTagsFile(uri, includePredicate2, qualifiers);
-				
-				// Make sure to add all new refs without overwriting (I suspect this level of checking is no longer needed)
-				for (Map.Entry<URI, Collection<TagEntry>> entry : newUriTagMap.entrySet()) {
-					if (!resolvedUriTagMap.containsKey(entry.getKey()))
-						resolvedUriTagMap.put(entry.getKey(), entry.getValue());
-					else
-						resolvedUriTagMap.get(entry.getKey()).addAll(entry.getValue());
+				addLocalFile(tagsFiles, uri);
+				File localFile = GFScopingHelper.getLocalFile(uri);
+				String hash = (localFile == null) ? null : tagsFiles.get(localFile);
+				for (Map.Entry<URI, GFScopeFragment> entry : getIndirectFragments(uri, hash, qualifiers, filter, ignoreCase).entrySet()) {
+					addFragment(fragments, entry.getKey(), entry.getValue());
 				}
-				
-				// Remove original
-				uriIter.remove();
 			}
+			else {
+				addFragment(fragments, uri, new GFScopeFragment(uri, tagList, filter, ignoreCase));
+			}
+		}
+		return fragments;
+	}
+	
+	private static void addFragment(Map<URI, List<GFScopeFragment>> fragments, URI uri, GFScopeFragment fragment) {
+		List<GFScopeFragment> list = fragments.get(uri);
+		if (list == null) {
+			list = new ArrayList<GFScopeFragment>(1);
+			fragments.put(uri, list);
+		}
+		list.add(fragment);
+	}
+	
+	/**
+	 * Get the fragments for the modules in another tags file, opened with the given qualifiers.
+	 * These are shared by everything opening the same tags file in the same way.
+	 * 
+	 * @param tagFileURI
+	 * @param hash hash of the tags file, or <code>null</code> if not known (then nothing is shared)
+	 * @param qualifiers qualifier and alias pairs
+	 * @param filter
+	 * @param ignoreCase
+	 * @return fragments by module URI
+	 */
+	private Map<URI, GFScopeFragment> getIndirectFragments(URI tagFileURI, String hash, Set<Pair<String, String>> qualifiers, Predicate<IEObjectDescription> filter, boolean ignoreCase) {
+		// Everything the fragments depend on, including the preference used to find the sources.
+		// Their module URIs are absolute, and the link folder follows from the tags file,
+		// so they don't depend on which resource opens the tags file.
+		Object key = null;
+		if (hash != null) {
+			Set<List<String>> qualifierKey = new HashSet<List<String>>();
+			for (Pair<String, String> pair : qualifiers) {
+				qualifierKey.add(Arrays.asList(pair.getFirst(), pair.getSecond()));
+			}
+			key = Arrays.asList(tagFileURI, hash, qualifierKey, filter, ignoreCase, GFPreferences.getLibrarySourcePath());
+		}
+		if (key != null) {
+			Map<URI, GFScopeFragment> shared = GFScopeFragment.getShared(key);
+			if (shared != null)
+				return shared;
 		}
 		
-		// Combine them & return
-		uriTagMap.putAll(resolvedUriTagMap);
-		return uriTagMap;
+		Predicate<TagEntry> includePredicate = new Predicate<TagEntry>() {
+			// Only include tags FROM the respective tags file (opposite of above)
+			public boolean apply(TagEntry tag) {
+				return !tag.getFile().endsWith(".gf-tags") /*&& !tag.getType().equals("overload-type")*/ ;
+			}
+		};
+		URITagMap uriTagMap = parseSingleTagsFile(tagFileURI, includePredicate, qualifiers);
+		Map<URI, GFScopeFragment> fragments = new LinkedHashMap<URI, GFScopeFragment>();
+		boolean provisional = false;
+		for (Map.Entry<URI, Collection<TagEntry>> entry : uriTagMap.entrySet()) {
+			fragments.put(entry.getKey(), new GFScopeFragment(entry.getKey(), entry.getValue(), filter, ignoreCase));
+			provisional |= GFExternalLinks.isProvisional(entry.getKey());
+		}
+		
+		// Fragments pointing to external files which are not linked yet are only used once
+		if (key != null && !provisional) {
+			GFScopeFragment.share(key, fragments);
+		}
+		return fragments;
+	}
+	
+	/**
+	 * Record a tags file about to be read, hashing it first so that a change made while it is
+	 * being read is noticed next time
+	 * @param files
+	 * @param uri
+	 */
+	private static void addLocalFile(Map<File, String> files, URI uri) {
+		File file = GFScopingHelper.getLocalFile(uri);
+		if (file != null && !files.containsKey(file))
+			files.put(file, GFBuildCache.getFileHash(file));
 	}
 	
 	/**
@@ -200,38 +335,54 @@ public class GFTagBasedGlobalScopeProvider extends AbstractGlobalScopeProvider {
 	private URITagMap parseSingleTagsFile(URI tagFileURI, Predicate<TagEntry> includePredicate, Set<Pair<String, String>> qualifiers) {
 		
 		TagMap strTagMap = new TagMap();
+		for (TagEntry tag : readTagsFile(tagFileURI)) {
+			// Determine whether to include the tag
+			if (includePredicate != null && !includePredicate.apply(tag))
+				continue;
+			
+			// Add tag to map...
+			if (qualifiers != null) {
+				// Add with multiple qualifiers, as needed (the shared tag itself must not be changed)
+				for (Pair<String, String> pair : qualifiers) {
+					TagEntry tag2 = new TagEntry(tag);
+					tag2.setQualifier(pair.getFirst());
+					tag2.setAlias(pair.getSecond());
+					strTagMap.addTag(tag2);
+				}
+			} else {
+				// Add tag with its "true" qualifier
+				strTagMap.addTag(tag);
+			}
+		}
+		
+		// Convert from String keys to URI keys (this is an optimisation thing)
+		URITagMap uriTagMap = convertStringToURITagMap(strTagMap, tagFileURI);
+		return uriTagMap;
+	}
+	
+	/**
+	 * Get all the tags in a tags file. Files on disk go through the shared {@link GFTagsCache},
+	 * so that library tags files opened by many modules are only parsed once.
+	 * 
+	 * @param tagFileURI
+	 * @return tags in file order; these may be shared and must not be modified
+	 */
+	private List<TagEntry> readTagsFile(URI tagFileURI) {
+		File localFile = GFScopingHelper.getLocalFile(tagFileURI);
+		if (localFile != null) {
+			return GFTagsCache.getInstance().getTags(localFile);
+		}
+		
+		List<TagEntry> tags = new ArrayList<TagEntry>();
 		try {
 			InputStream is = uriConverter.createInputStream(tagFileURI);
 			BufferedReader reader = new BufferedReader( new InputStreamReader(is) );
 			String line;
 			while ((line = reader.readLine()) != null) {
-				TagEntry tag;
 				try {
-					tag = new TagEntry(line);
+					tags.add(new TagEntry(line));
 				} catch (GFTagsFileException e) {
 					log.warn(e); // Would happen if the tags file is malformed somehow
-					continue;
-				}
-				// Determine whether to include the tag
-				if (includePredicate != null && !includePredicate.apply(tag))
-					continue;
-				
-				// Add tag to map...
-				if (qualifiers != null) {
-					// Add with multiple qualifiers, as needed
-					for (Pair<String, String> pair : qualifiers) {
-						try {
-							TagEntry tag2 = new TagEntry(line);
-							tag2.setQualifier(pair.getFirst());
-							tag2.setAlias(pair.getSecond());
-							strTagMap.addTag(tag2);
-						} catch (GFTagsFileException e) {
-							log.warn("Error creating tag", e);
-						}
-					}
-				} else {
-					// Add tag with its "true" qualifier
-					strTagMap.addTag(tag);
 				}
 			}
 			// Clean up
@@ -241,14 +392,11 @@ public class GFTagBasedGlobalScopeProvider extends AbstractGlobalScopeProvider {
 			// Problem reading the actual file (not just a particular line)
 			log.debug("Problem reading tags file: "+tagFileURI, e);
 		}
-		
-		// Convert from String keys to URI keys (this is an optimisation thing)
-		URITagMap uriTagMap = convertStringToURITagMap(strTagMap, tagFileURI);
-		return uriTagMap;
+		return tags;
 	}
 	
 	/**
-	 * Convert from a TagMap to a URITagMap, performing checks and creating
+	 * Convert from a TagMap to a URITagMap, performing checks and queueing
 	 * external links along the way.
 	 * 
 	 * @param strTagMap
@@ -266,22 +414,20 @@ public class GFTagBasedGlobalScopeProvider extends AbstractGlobalScopeProvider {
 			return uriTagMap;
 		}
 		
-		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
-		String rootPath = root.getLocation().toString();
+		String rootPath = ResourcesPlugin.getWorkspace().getRoot().getLocation().toString();
+		GFExternalPathCache.Lookup lookup = GFExternalPathCache.getInstance().startLookup();
 		for (Entry<String, Collection<TagEntry>> entry : strTagMap.entrySet()) {
 			URI importURI = null;
 			String uriAsStr = entry.getKey();
-			Path uriAsPath = new Path(uriAsStr);
 			
 			// Determine an import URI
 			if (uriAsStr.endsWith(".gf")) {
 				if (uriAsStr.contains(rootPath)) {
 					// If the URI is pointing within the workspace, convert it to a platform URI
 					String trimmedURI = uriAsStr.substring(rootPath.length());
-					root.getFile(uriAsPath);
 					importURI = URI.createPlatformResourceURI(trimmedURI, true);
 				} else {
-					importURI = resolveExternalFile(uriAsStr, externalFolder);
+					importURI = resolveExternalFile(uriAsStr, externalFolder, lookup);
 				}
 			} else if (uriAsStr.endsWith(".gf-tags")) {
 				// Just use a dumb old file:// URI
@@ -300,24 +446,14 @@ public class GFTagBasedGlobalScopeProvider extends AbstractGlobalScopeProvider {
 	 * the user's library source path preference. If not, create a dummy resource.
 	 *  
 	 * @param uriAsStr
-	 * @return URI to resolved resource (may be a link or a dummy resource)
+	 * @param externalFolder
+	 * @param lookup where files were found before
+	 * @return URI to resolved resource (may be a link, the file itself until the link is created, or a dummy resource)
 	 */
-	private URI resolveExternalFile(String uriAsStr, IFolder externalFolder) {
-		IPath path = new Path(uriAsStr);
-
-		// If file exists, register link
-		if (path.toFile().exists()) {
-			return registerExternalFile(path, externalFolder);
-		}
-		
-		// See if using the GF_LIB_SRC preference will help
-		String librarySourcePath = GFPreferences.getLibrarySourcePath();
-		if (librarySourcePath != null) {
-			String adjustedPath = path.toOSString().replaceFirst("^.+?lib[/\\\\]src[/\\\\]", librarySourcePath);
-			path = new Path(adjustedPath);
-			if (path.toFile().exists()) {
-				return registerExternalFile(path, externalFolder);
-			}
+	private URI resolveExternalFile(String uriAsStr, IFolder externalFolder, GFExternalPathCache.Lookup lookup) {
+		String resolved = lookup.resolve(uriAsStr);
+		if (resolved != null) {
+			return GFExternalLinks.getURI(new Path(resolved), externalFolder);
 		}
 		
 		// Sources not found, use a dummy URI
@@ -325,50 +461,4 @@ public class GFTagBasedGlobalScopeProvider extends AbstractGlobalScopeProvider {
 		return GFScopingHelper.createDummyURI(uriAsStr);
 	}
 	
-	/**
-	 * Given an external file path, create a link to it within the BUILD_FOLDER and return
-	 * it as a platform/project URI.
-	 * 
-	 * @param externalFilePath
-	 * @param tagFileURI 
-	 * @return
-	 */
-	private URI registerExternalFile(IPath externalPath, IFolder linkFolder) {
-		try {
-			String localLink = linkFolder.getName() + java.io.File.separator + externalPath.lastSegment();
-			IFile link = linkFolder.getFile( externalPath.lastSegment() );
-			
-			// Always recreate the link
-//			if (link.exists())
-//				link.delete(true, null);
-			
-			if (!link.exists()) {
-				// Create
-				link.createLink(externalPath, IResource.NONE, null);
-//				ResourceAttributes attributes = link.getResourceAttributes();
-//				attributes.setReadOnly(true);
-//				link.setResourceAttributes(attributes);
-			}
-			return URI.createURI(localLink);
-			
-		} catch (Exception e) {
-			log.warn("Couldn't link to external file " + externalPath, e);
-			return null;
-		}
-	}
-	
-	/**
-	 * Gets the descriptions of resources listed in importUris
-	 *
-	 * @param resource the resource
-	 * @param importUris the import uris
-	 * @return the resource descriptions
-	 */
-	private IResourceDescriptions getResourceDescriptions(Resource resource, Collection<URI> importUris) {
-		IResourceDescriptions result = getResourceDescriptions(resource);
-		LoadOnDemandResourceDescriptions demandResourceDescriptions = loadOnDemandDescriptions.get();
-		demandResourceDescriptions.initialize(result, importUris, resource);
-		return demandResourceDescriptions;
-	}
-	
 }
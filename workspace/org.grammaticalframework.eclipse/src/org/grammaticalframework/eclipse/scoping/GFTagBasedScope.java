@@ -10,181 +10,210 @@
 package org.grammaticalframework.eclipse.scoping;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import org.apache.log4j.Logger;
-import org.eclipse.emf.common.util.URI;
-import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.resource.Resource;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
-import org.eclipse.xtext.naming.IQualifiedNameConverter;
 import org.eclipse.xtext.naming.QualifiedName;
-import org.eclipse.xtext.resource.EObjectDescription;
 import org.eclipse.xtext.resource.IEObjectDescription;
-import org.eclipse.xtext.resource.IResourceDescription;
-import org.eclipse.xtext.resource.IResourceDescriptions;
 import org.eclipse.xtext.scoping.IScope;
 import org.eclipse.xtext.scoping.impl.AbstractScope;
-import org.grammaticalframework.eclipse.gF.GFPackage;
-import org.grammaticalframework.eclipse.gF.Ident;
-import org.grammaticalframework.eclipse.gF.impl.GFFactoryImpl;
-
-import com.google.common.base.Predicate;
-import com.google.inject.Inject;
 
+/**
+ * Scope holding the tags of a single module, chained to the scopes of the other modules in view.
+ * 
+ * The descriptions themselves are held in {@link GFScopeFragment}s, which may be shared with
+ * the scopes of other resources opening the same modules. A module can have several fragments,
+ * e.g. when it is reached through more than one library.
+ * 
+ * Lookups by name go through hash tables rather than iterating over the descriptions.
+ * The chain of module scopes is flattened into a single table at the first lookup,
+ * where each name maps to the nearest module which has it (i.e. the same shadowing
+ * as the chain itself). The table only holds the names, which come from the shared fragments,
+ * and the descriptions are still only created for the modules which are looked in.
+ * 
+ * Descriptions don't hold the definitions themselves, but proxies pointing to them by
+ * name and line, so that library sources are not parsed just to build a scope.
+ * See {@link org.grammaticalframework.eclipse.resource.GFFragmentProvider}.
+ */
 public class GFTagBasedScope extends AbstractScope {
 
 	/**
-	 * Qualified name converter
+	 * The name of the module this scope represents
 	 */
-	@Inject
-	private IQualifiedNameConverter converter = new IQualifiedNameConverter.DefaultImpl();
-
+	private final String moduleName;
+	
 	/**
-	 * The logger
+	 * The module's descriptions
 	 */
-	private static final Logger log = Logger.getLogger(GFTagBasedScope.class);
-
+	private final List<GFScopeFragment> fragments;
+	
 	/**
-	 * The name of the module this scope represents
+	 * Nearest scope with each name, among this one and the GF scopes below it, built when first needed
 	 */
-	private final String moduleName;
+	private Map<String, GFTagBasedScope> flatIndex;
 	
 	/**
-	 * The object descriptions.
+	 * First parent which is not a GF tag scope, found when first needed
 	 */
-	private final ArrayList<IEObjectDescription> descriptions;
+	private IScope outerParent;
 	
 	/**
-	 * Blank constructor
+	 * Create a scope for a module
 	 * 
 	 * @param parent
+	 * @param moduleName
+	 * @param fragments the module's descriptions
 	 * @param ignoreCase
 	 */
-	protected GFTagBasedScope(IScope parent, String moduleName, boolean ignoreCase) {
+	protected GFTagBasedScope(IScope parent, String moduleName, List<GFScopeFragment> fragments, boolean ignoreCase) {
 		super(parent==null ? IScope.NULLSCOPE : parent, ignoreCase);
 		this.moduleName = moduleName;
-		descriptions = new ArrayList<IEObjectDescription>();
+		this.fragments = fragments;
+	}
+	
+	@Override
+	protected Iterable<IEObjectDescription> getAllLocalElements() {
+		if (fragments.size() == 1)
+			return fragments.get(0).getDescriptions();
+		List<IEObjectDescription> list = new ArrayList<IEObjectDescription>();
+		for (GFScopeFragment fragment : fragments) {
+			list.addAll(fragment.getDescriptions());
+		}
+		return list;
+	}
+	
+	@Override
+	protected Iterable<IEObjectDescription> getLocalElementsByName(QualifiedName name) {
+		List<IEObjectDescription> list = getLocal(getKey(name));
+		return (list == null) ? Collections.<IEObjectDescription>emptyList() : list;
+	}
+	
+	@Override
+	public IEObjectDescription getSingleElement(QualifiedName name) {
+		List<IEObjectDescription> list = find(getKey(name));
+		return (list != null) ? list.get(0) : getOuterParent().getSingleElement(name);
+	}
+	
+	@Override
+	public Iterable<IEObjectDescription> getElements(QualifiedName name) {
+		// Anything with this name in the scopes below is shadowed
+		List<IEObjectDescription> list = find(getKey(name));
+		return (list != null) ? list : getOuterParent().getElements(name);
 	}
 	
 	/**
-	 * Constructs a new scope with the given descriptions
-	 * 
-	 * @param parent
-	 * @param ignoreCase
+	 * Find the descriptions for a name in the nearest scope which has any
+	 * @param key
+	 * @return descriptions, or <code>null</code> if no GF scope in the chain has any
 	 */
-//	protected GFTagBasedScope(IScope parent, IResourceDescription resourceDescription, boolean ignoreCase) {
-//		super(parent==null ? IScope.NULLSCOPE : parent, ignoreCase);
-//		moduleName = resourceDescription.getURI().lastSegment().substring(0, resourceDescription.getURI().lastSegment().lastIndexOf('.'));
-//		descriptions = new ArrayList<IEObjectDescription>();
-//		for (IEObjectDescription desc : resourceDescription.getExportedObjects()) {
-////			QualifiedName newName = getUnQualifiedName(desc.getQualifiedName()); // Strip off qualified bit of name (maybe)
-////			descriptions.add(EObjectDescription.create(newName, desc.getEObjectOrProxy()));
-//			descriptions.add(desc);
-//		}
-//	}
+	private List<IEObjectDescription> find(String key) {
+		GFTagBasedScope scope = getFlatIndex().get(key);
+		while (scope != null) {
+			List<IEObjectDescription> list = scope.getLocal(key);
+			if (list != null)
+				return list;
+			// The name was in the tags, but no description was made for it (e.g. filtered out)
+			scope = scope.findBelow(key);
+		}
+		return null;
+	}
 	
 	/**
-	 * Create a dummy Ident EObject in the resource URI, which can be trivially satisfied
-	 * @param name
-	 * @param uri
+	 * Find the next GF scope below this one which may have a name
+	 * @param key
 	 * @return
 	 */
-	private Ident createDummyIdentInResource(String name, URI uri) {
-		Ident newIdent = GFFactoryImpl.eINSTANCE.createIdent();
-		newIdent.setS(name);
-		Resource r = new ResourceSetImpl().createResource(uri);
-		r.getContents().add(newIdent);
-		return newIdent;
+	private GFTagBasedScope findBelow(String key) {
+		IScope scope = getParent();
+		while (scope instanceof GFTagBasedScope) {
+			GFTagBasedScope gfScope = (GFTagBasedScope) scope;
+			if (gfScope.mayHave(key))
+				return gfScope;
+			scope = gfScope.getParent();
+		}
+		return null;
+	}
+	
+	private boolean mayHave(String key) {
+		for (GFScopeFragment fragment : fragments) {
+			if (fragment.mayHave(key))
+				return true;
+		}
+		return false;
 	}
 	
 	/**
-	 * Add the collection of tags to the scope. The resource descriptions are used for looking up the corresponding EObjects
-	 * 
-	 * @param resourceDescriptions
-	 * @param tags
+	 * Get this scope's own descriptions for a name
+	 * @param key
+	 * @return unmodifiable descriptions, or <code>null</code> if there are none
 	 */
-	public void addTags(IResourceDescriptions resourceDescriptions, URI uri, Collection<TagEntry> tags, Predicate<IEObjectDescription> filter) {
-		ArrayList<TagEntry> notFound = new ArrayList<TagEntry>();
-		for (TagEntry tag : tags) {
-			try {
-				QualifiedName trueQualifiedName = converter.toQualifiedName(tag.getTrueQualifiedName()); // qualified with ultimate module of definition
-				Map<String, String> userData = tag.getProperties();
-				EObject eObj;
-				
-				if (GFScopingHelper.isDummyURI(uri)) {
-					// User does not have source, just create a dummy EObject
-					eObj = createDummyIdentInResource(tag.getIdent(), uri);
-				} else {
-					// Try to find by using trueQualifiedName
-					IResourceDescription resourceDesc = resourceDescriptions.getResourceDescription(uri);
-					if (resourceDesc == null) continue;
-					Iterable<IEObjectDescription> matchingEObjects1 = resourceDesc.getExportedObjects(GFPackage.Literals.IDENT, trueQualifiedName, false);
-					Iterator<IEObjectDescription> iter1 = matchingEObjects1.iterator();
-					if (iter1.hasNext()) {
-						// TODO This just always chooses first occurance... is that bad?
-						eObj = iter1.next().getEObjectOrProxy();
-					} else {
-						// Cannot find EObject in source even though it's in tags
-						// Always trust the tags file, but this should be noted.
-						eObj = createDummyIdentInResource(tag.getIdent(), uri);
-						notFound.add(tag);
-					}
-				}
-				
-				// Duplicate the object description, so that we can edit the qualified name and add the user data
-				QualifiedName fullyQualifiedName = converter.toQualifiedName(tag.getQualifiedName());
-				IEObjectDescription eObjDesc = new EObjectDescription(fullyQualifiedName, eObj, userData);
-				if (filter==null || filter.apply(eObjDesc)) {
-					descriptions.add(eObjDesc);
-				}
-
-				/*
-				 * Do it again for the alias, or if no alias then for the UNQUALIFIED name
-				 * Technically we can do without the else block, since TagEntry#getAliasQualifiedName() will
-				 * just return an unqualified name if no alias exists. But that makes for very unreadable code.
-				 */
-				if (tag.hasAlias() && !tag.getAlias().equals(tag.getQualifier())) {
-					QualifiedName aliasQualifiedName = converter.toQualifiedName(tag.getAliasQualifiedName());
-					eObjDesc = new EObjectDescription(aliasQualifiedName, eObj, userData);
-					if (filter==null || filter.apply(eObjDesc)) {
-						descriptions.add(eObjDesc);
-					}
-				} else {
-					QualifiedName unQualifiedName = getUnQualifiedName(trueQualifiedName);
-					eObjDesc = new EObjectDescription(unQualifiedName, eObj, userData);
-					if (filter==null || filter.apply(eObjDesc)) {
-						descriptions.add(eObjDesc);
-					}
+	private List<IEObjectDescription> getLocal(String key) {
+		List<IEObjectDescription> result = null;
+		boolean copied = false;
+		for (GFScopeFragment fragment : fragments) {
+			List<IEObjectDescription> list = fragment.get(key);
+			if (list == null)
+				continue;
+			if (result == null) {
+				result = list;
+			} else {
+				if (!copied) {
+					result = new ArrayList<IEObjectDescription>(result);
+					copied = true;
 				}
-				
-			} catch (IllegalStateException _) {
-				// Sometimes happens when you save during a build/validation, etc. 
+				result.addAll(list);
 			}
 		}
-			
-		// TODO: This should not happen at the scale at which it does
-		// I only commented out the warning because it was so annoying
-//		if (notFound.size() > 0) {
-//			StringBuilder sb = new StringBuilder(notFound.size()*8);
-//			for (TagEntry t : notFound) sb.append(t.getTrueQualifiedName()).append(", ");
-//			log.debug(String.format("No EObject found for %s items: %s", notFound.size(), sb.toString()));
-//		}
+		return (result == null) ? null : Collections.unmodifiableList(result);
 	}
 	
-	private QualifiedName getUnQualifiedName(QualifiedName qn) {
-		return qn.skipFirst(qn.getSegmentCount()-1);
+	private String getKey(QualifiedName name) {
+		return isIgnoreCase() ? name.toString().toLowerCase() : name.toString();
 	}
 	
-	@Override
-	protected Iterable<IEObjectDescription> getAllLocalElements() {
-		return descriptions;
+	/**
+	 * Merge the names of this scope and all the GF scopes below it, nearest first
+	 * @return
+	 */
+	private synchronized Map<String, GFTagBasedScope> getFlatIndex() {
+		if (flatIndex == null) {
+			Map<String, GFTagBasedScope> flat = new HashMap<String, GFTagBasedScope>();
+			IScope scope = this;
+			while (scope instanceof GFTagBasedScope) {
+				GFTagBasedScope gfScope = (GFTagBasedScope) scope;
+				for (GFScopeFragment fragment : gfScope.fragments) {
+					for (String key : fragment.getNames()) {
+						if (!flat.containsKey(key)) {
+							flat.put(key, gfScope);
+						}
+					}
+				}
+				scope = gfScope.getParent();
+			}
+			flatIndex = flat;
+		}
+		return flatIndex;
+	}
+	
+	private IScope getOuterParent() {
+		if (outerParent == null) {
+			IScope scope = getParent();
+			while (scope instanceof GFTagBasedScope) {
+				scope = ((GFTagBasedScope) scope).getParent();
+			}
+			outerParent = scope;
+		}
+		return outerParent;
 	}
 
 	protected int localElementCount() {
-		return descriptions.size();
+		int count = 0;
+		for (GFScopeFragment fragment : fragments) {
+			count += fragment.getDescriptions().size();
+		}
+		return count;
 	}
 
 	protected String getModuleName() {
@@ -0,0 +1,175 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.scoping;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Process-wide cache of parsed tags files, shared by all resources, resource sets and projects.
+ *
+ * Library tags files (e.g. those of ParadigmsEng or SyntaxEng) are opened by many modules,
+ * and are now only parsed once for all of them. Entries are keyed by the location of the
+ * tags file, and are only used while its size and modification time are unchanged.
+ *
+ * Each file is read completely, so the cost of reading a file is paid once rather than by every
+ * scope; it is not avoided. The cache is bounded by the total number of tags held; the least
+ * recently used files are dropped first. The cached lists and their tags must not be modified.
+ */
+public class GFTagsCache {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFTagsCache.class);
+
+	/**
+	 * Maximum number of tags held, over all files
+	 */
+	public static final int DEFAULT_MAX_TAGS = 500000;
+
+	private static final GFTagsCache instance = new GFTagsCache(DEFAULT_MAX_TAGS);
+
+	/**
+	 * A parsed tags file
+	 */
+	private static class Entry {
+		final long size;
+		final long mtime;
+		final List<TagEntry> tags;
+		Entry(long size, long mtime, List<TagEntry> tags) {
+			this.size = size;
+			this.mtime = mtime;
+			this.tags = tags;
+		}
+	}
+
+	private final int maxTags;
+
+	/**
+	 * Entries by absolute path, in order of access
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private int totalTags = 0;
+	private int hits = 0;
+	private int misses = 0;
+
+	public GFTagsCache(int maxTags) {
+		this.maxTags = maxTags;
+	}
+
+	/**
+	 * Get the shared instance
+	 * @return
+	 */
+	public static GFTagsCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Get the tags in a tags file, in the order in which they appear, parsing it if necessary.
+	 * The binary index is used if it is up to date.
+	 * @param tagsFile
+	 * @return unmodifiable list of tags, empty if the file can't be read
+	 */
+	public List<TagEntry> getTags(File tagsFile) {
+		String key = tagsFile.getAbsolutePath();
+		long size = tagsFile.length();
+		long mtime = tagsFile.lastModified();
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.size == size && entry.mtime == mtime) {
+				hits++;
+				return entry.tags;
+			}
+			misses++;
+		}
+
+		// Parse outside the lock, so that other files can be read meanwhile
+		List<TagEntry> tags = Collections.unmodifiableList(parse(tagsFile));
+		if (mtime == 0) {
+			return tags; // File doesn't exist
+		}
+		synchronized (this) {
+			Entry old = entries.put(key, new Entry(size, mtime, tags));
+			if (old != null)
+				totalTags -= old.tags.size();
+			totalTags += tags.size();
+			evict();
+		}
+		return tags;
+	}
+
+	/**
+	 * Drop least recently used files until under the limit, always keeping the newest one
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+		while (totalTags > maxTags && entries.size() > 1 && iter.hasNext()) {
+			Map.Entry<String, Entry> eldest = iter.next();
+			totalTags -= eldest.getValue().tags.size();
+			iter.remove();
+			log.debug("Evicted tags for " + eldest.getKey());
+		}
+	}
+
+	/**
+	 * Read all the tags in a file. Every tag is created here, also when reading the index,
+	 * so that the cached list doesn't depend on the index file staying mapped and unchanged.
+	 * @param tagsFile
+	 * @return
+	 */
+	private static List<TagEntry> parse(File tagsFile) {
+		GFTagsIndex index = GFTagsIndex.open(tagsFile);
+		if (index != null) {
+			return new ArrayList<TagEntry>(index.getTags());
+		}
+		try {
+			return GFTagsIndex.readText(tagsFile);
+		} catch (IOException e) {
+			// Problem reading the actual file (not just a particular line)
+			log.debug("Problem reading tags file: " + tagsFile, e);
+			return new ArrayList<TagEntry>();
+		}
+	}
+
+	/**
+	 * Forget everything
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		totalTags = 0;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Summary for logging
+	 * @return
+	 */
+	public synchronized String getStatistics() {
+		return String.format("%d files, %d tags, %d hits, %d misses", entries.size(), totalTags, hits, misses);
+	}
+
+}
@@ -0,0 +1,378 @@
+/**
+ * GF Eclipse Plugin
+ * http://www.grammaticalframework.org/eclipse/
+ * John J. Camilleri, 2012
+ *
+ * The research leading to these results has received funding from the
+ * European Union's Seventh Framework Programme (FP7/2007-2013) under
+ * grant agreement no. FP7-ICT-247914.
+ */
+package org.grammaticalframework.eclipse.scoping;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Binary form of a GF tags file, written by the builder next to each tags file
+ * (<code>Foo.gf-tags</code> &rarr; <code>Foo.gf-tags.idx</code>) and memory-mapped by the scoping,
+ * so that tags can be read without splitting and parsing lines of text every time.
+ * It is only a faster way of reading the whole file: the scoping still creates every tag,
+ * but each distinct string is only decoded once.
+ *
+ * Layout (all numbers big-endian):
+ * <pre>
+ * header      magic, version, tags file size (long), tags file mtime (long),
+ *             record count, string count, offset of records
+ * strings     offset of each string, then each string as length + UTF-8 bytes
+ *             (every distinct string is stored only once)
+ * records     one fixed-width record per tag, in the order of the tags file:
+ *             ident, type, qualifier, alias, module name, file, args (as string numbers),
+ *             line from, line to (-1 if none), flags
+ * </pre>
+ *
+ * An index is only used when the size and modification time of the tags file match those
+ * recorded in the header; otherwise callers should fall back to the text file.
+ */
+public class GFTagsIndex {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = Logger.getLogger(GFTagsIndex.class);
+
+	/**
+	 * Extension added to the tags file name
+	 */
+	public static final String EXTENSION = ".idx";
+
+	private static final int MAGIC = 0x47465449; // "GFTI"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 36;
+	private static final int RECORD_SIZE = 40;
+	private static final int FLAG_INDIRECT = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final int recordCount;
+	private final int stringCount;
+	private final int recordsOffset;
+
+	/**
+	 * Strings decoded so far
+	 */
+	private final String[] strings;
+
+	private GFTagsIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		this.recordCount = buffer.getInt(24);
+		this.stringCount = buffer.getInt(28);
+		this.recordsOffset = buffer.getInt(32);
+		if (recordCount < 0 || stringCount < 0
+				|| recordsOffset + (long) recordCount * RECORD_SIZE > buffer.limit()) {
+			throw new IOException("Corrupt tags index");
+		}
+		this.strings = new String[stringCount];
+	}
+
+	/**
+	 * Get the index file for a tags file
+	 * @param tagsFile
+	 * @return
+	 */
+	public static File getIndexFile(File tagsFile) {
+		return new File(tagsFile.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Open the index of a tags file, if there is one which is up to date
+	 * @param tagsFile
+	 * @return the index, or <code>null</code> if the text file must be read instead
+	 */
+	public static GFTagsIndex open(File tagsFile) {
+		File indexFile = getIndexFile(tagsFile);
+		if (!indexFile.exists())
+			return null;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+					return null;
+				// The mapping stays valid after the channel is closed
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+					return null;
+				if (buffer.getLong(8) != tagsFile.length() || buffer.getLong(16) != tagsFile.lastModified())
+					return null;
+				return new GFTagsIndex(buffer);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			log.debug("Cannot read tags index " + indexFile, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Number of tags in the index
+	 * @return
+	 */
+	public int size() {
+		return recordCount;
+	}
+
+	/**
+	 * Get all the tags, in the order in which they appear in the tags file.
+	 * Tags are created as they are accessed.
+	 * @return
+	 */
+	public List<TagEntry> getTags() {
+		return new AbstractList<TagEntry>() {
+			@Override
+			public TagEntry get(int index) {
+				return getTag(index);
+			}
+			@Override
+			public int size() {
+				return recordCount;
+			}
+		};
+	}
+
+	/**
+	 * Get a single tag
+	 * @param record position of the tag in the tags file
+	 * @return
+	 */
+	public TagEntry getTag(int record) {
+		if (record < 0 || record >= recordCount)
+			throw new IndexOutOfBoundsException("Record " + record + " of " + recordCount);
+		int pos = recordsOffset + record * RECORD_SIZE;
+		return new TagEntry(
+				getString(buffer.getInt(pos)),
+				getString(buffer.getInt(pos + 4)),
+				getString(buffer.getInt(pos + 8)),
+				getString(buffer.getInt(pos + 12)),
+				getString(buffer.getInt(pos + 16)),
+				getString(buffer.getInt(pos + 20)),
+				getString(buffer.getInt(pos + 24)),
+				buffer.getInt(pos + 28),
+				buffer.getInt(pos + 32),
+				(buffer.getInt(pos + 36) & FLAG_INDIRECT) != 0);
+	}
+
+	/**
+	 * Decode a string from the string table, or return it if already decoded.
+	 * Unsynchronised, since at worst the same string is decoded twice.
+	 * @param n
+	 * @return
+	 */
+	private String getString(int n) {
+		String s = strings[n];
+		if (s == null) {
+			int pos = buffer.getInt(HEADER_SIZE + n * 4);
+			byte[] bytes = new byte[buffer.getInt(pos)];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(pos + 4 + i);
+			}
+			s = new String(bytes, UTF8);
+			strings[n] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Write the index for every tags file in a folder which doesn't have an up-to-date one
+	 * @param folder
+	 * @return number of indexes written
+	 */
+	public static int updateFolder(File folder) {
+		File[] tagsFiles = folder.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.getName().endsWith(".gf-tags");
+			}
+		});
+		if (tagsFiles == null)
+			return 0;
+		int written = 0;
+		for (File tagsFile : tagsFiles) {
+			if (!isUpToDate(tagsFile) && write(tagsFile))
+				written++;
+		}
+		return written;
+	}
+
+	/**
+	 * Does a tags file have an index which matches it?
+	 * @param tagsFile
+	 * @return
+	 */
+	public static boolean isUpToDate(File tagsFile) {
+		File indexFile = getIndexFile(tagsFile);
+		if (!indexFile.exists())
+			return false;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+			try {
+				return raf.length() >= HEADER_SIZE
+						&& raf.readInt() == MAGIC
+						&& raf.readInt() == VERSION
+						&& raf.readLong() == tagsFile.length()
+						&& raf.readLong() == tagsFile.lastModified();
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Parse a tags file and write its index.
+	 * The index is written under a temporary name first and then renamed, so that readers never see it half-written.
+	 * @param tagsFile
+	 * @return false if the index could not be written
+	 */
+	public static boolean write(File tagsFile) {
+		long size = tagsFile.length();
+		long mtime = tagsFile.lastModified();
+
+		// Parse the text file
+		List<TagEntry> tags;
+		try {
+			tags = readText(tagsFile);
+		} catch (IOException e) {
+			log.warn("Error reading tags file " + tagsFile, e);
+			return false;
+		}
+
+		// Number the distinct strings
+		Map<String, Integer> stringNumbers = new LinkedHashMap<String, Integer>();
+		int[][] records = new int[tags.size()][];
+		for (int i = 0; i < tags.size(); i++) {
+			TagEntry tag = tags.get(i);
+			records[i] = new int[] {
+				number(stringNumbers, tag.getIdent()),
+				number(stringNumbers, tag.getType()),
+				number(stringNumbers, tag.getQualifier()),
+				number(stringNumbers, tag.getAlias()),
+				number(stringNumbers, tag.getModuleName()),
+				number(stringNumbers, tag.getFile()),
+				number(stringNumbers, tag.getArgs()),
+				(tag.getLineFrom() == null) ? TagEntry.NO_LINE : tag.getLineFrom(),
+				(tag.getLineTo() == null) ? TagEntry.NO_LINE : tag.getLineTo(),
+				Boolean.TRUE.equals(tag.getIsIndirect()) ? FLAG_INDIRECT : 0,
+			};
+		}
+		List<byte[]> encoded = new ArrayList<byte[]>(stringNumbers.size());
+		for (String s : stringNumbers.keySet()) {
+			encoded.add(s.getBytes(UTF8));
+		}
+
+		// Work out offsets
+		int stringsOffset = HEADER_SIZE + encoded.size() * 4;
+		int[] stringOffsets = new int[encoded.size()];
+		int pos = stringsOffset;
+		for (int i = 0; i < encoded.size(); i++) {
+			stringOffsets[i] = pos;
+			pos += 4 + encoded.get(i).length;
+		}
+		int recordsOffset = pos;
+
+		File indexFile = getIndexFile(tagsFile);
+		File tmpFile = new File(indexFile.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(mtime);
+				out.writeInt(records.length);
+				out.writeInt(encoded.size());
+				out.writeInt(recordsOffset);
+				for (int offset : stringOffsets) {
+					out.writeInt(offset);
+				}
+				for (byte[] bytes : encoded) {
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+				for (int[] record : records) {
+					for (int field : record) {
+						out.writeInt(field);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(indexFile)) {
+				// Windows won't rename over an existing file
+				indexFile.delete();
+				if (!tmpFile.renameTo(indexFile))
+					throw new IOException("Cannot rename " + tmpFile);
+			}
+			return true;
+		} catch (IOException e) {
+			log.warn("Error writing tags index " + indexFile, e);
+			tmpFile.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Parse the text of a tags file, skipping malformed lines
+	 * @param tagsFile
+	 * @return tags in the order in which they appear
+	 * @throws IOException
+	 */
+	static List<TagEntry> readText(File tagsFile) throws IOException {
+		ArrayList<TagEntry> tags = new ArrayList<TagEntry>();
+		BufferedReader reader = new BufferedReader(new FileReader(tagsFile));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				try {
+					tags.add(new TagEntry(line));
+				} catch (GFTagsFileException e) {
+					log.warn(e); // Would happen if the tags file is malformed somehow
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		tags.trimToSize();
+		return tags;
+	}
+
+	private static int number(Map<String, Integer> stringNumbers, String s) {
+		if (s == null)
+			s = "";
+		Integer n = stringNumbers.get(s);
+		if (n == null) {
+			n = stringNumbers.size();
+			stringNumbers.put(s, n);
+		}
+		return n;
+	}
+
+}
@@ -9,11 +9,18 @@
  */
 package org.grammaticalframework.eclipse.scoping;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.eclipse.xtext.resource.IEObjectDescription;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
  * Represents a single "tag" entry in the GF-produced tags file, e.g.:
  * <pre>
@@ -21,6 +28,10 @@ import org.eclipse.xtext.resource.IEObjectDescription;
  * AAdj	param-value	/.../ResEng.gf:75	Degree -> Case -> AForm
  * }
  * </pre>
+ * 
+ * Tags are held in large numbers, so their strings are interned in a shared pool
+ * (module names, types and file paths repeat across thousands of tags) and line
+ * numbers are kept as plain ints.
  */
 public class TagEntry {
 	
@@ -36,6 +47,26 @@ public class TagEntry {
 //	public static String USER_DATA_KEY_LINENO = "linenumber";
 	public static String USER_DATA_KEY_ARGS = "args";
 	
+	private static final String[] PROPERTY_KEYS = {
+		USER_DATA_KEY_IDENT,
+		USER_DATA_KEY_TYPE,
+		USER_DATA_KEY_QUALIFIER,
+		USER_DATA_KEY_ALIAS,
+		USER_DATA_KEY_MODULENAME,
+		USER_DATA_KEY_FILE,
+		USER_DATA_KEY_ARGS,
+	};
+	
+	/**
+	 * Line number when none is known
+	 */
+	static final int NO_LINE = -1;
+	
+	/**
+	 * Shared pool of tag strings
+	 */
+	private static final Interner<String> strings = Interners.newWeakInterner();
+	
 	/**
 	 * The unqualified indentifier
 	 */
@@ -72,40 +103,63 @@ public class TagEntry {
 	private String args;
 	
 	
-	private Integer lineFrom, lineTo;
+	private int lineFrom = NO_LINE, lineTo = NO_LINE;
 	
 	/**
 	 * Is this tag pointing to another tags file? (indirect = yes)
 	 */
-	private Boolean isIndirect;
+	private boolean isIndirect;
+	
+	/**
+	 * View of the fields as user data, created when first needed
+	 */
+	private Map<String, String> properties;
 	
 	/**
 	 * Instantiates a new tag entry.
+	 * The line is scanned once, by position; only the strings for the fields themselves are created.
 	 *
-	 * @param elements The elements as extracted from the tags file, by String.split()
+	 * @param line A line from the tags file
 	 */
 	public TagEntry(String line) throws GFTagsFileException {
-		try {
-			String[] elements = line.split("\t", -1);
-			this.ident = elements[0];
-			this.type = elements[1];
-			this.isIndirect = this.type.equals("indir");
-			if (this.isIndirect) {
-				parseFileAndLineNumbers(elements[4]);
-				this.qualifier = elements[2];
-				this.alias = elements[3];
-				this.args = "";
-			} else {
-				parseFileAndLineNumbers(elements[2]);
-				this.qualifier = this.moduleName;
-				this.alias = "";
-				this.args = cleanTypeSignature(elements[3]);
-			}
-		} catch (ArrayIndexOutOfBoundsException e) {
+		// ident <tab> type <tab> ...
+		int end0 = line.indexOf('\t');
+		int end1 = (end0 < 0) ? -1 : line.indexOf('\t', end0 + 1);
+		int end2 = (end1 < 0) ? -1 : line.indexOf('\t', end1 + 1);
+		if (end2 < 0)
 			throw new GFTagsFileException("Malformed tag line: "+line);
+		int end3 = fieldEnd(line, end2 + 1);
+		this.ident = intern(line.substring(0, end0));
+		this.type = intern(line.substring(end0 + 1, end1));
+		this.isIndirect = this.type.equals("indir");
+		if (this.isIndirect) {
+			// ... <tab> qualifier <tab> alias <tab> file
+			if (end3 == line.length())
+				throw new GFTagsFileException("Malformed tag line: "+line);
+			parseFileAndLineNumbers(line, end3 + 1, fieldEnd(line, end3 + 1));
+			this.qualifier = intern(line.substring(end1 + 1, end2));
+			this.alias = intern(line.substring(end2 + 1, end3));
+			this.args = "";
+		} else {
+			// ... <tab> file <tab> args
+			parseFileAndLineNumbers(line, end1 + 1, end2);
+			this.qualifier = this.moduleName;
+			this.alias = "";
+			this.args = intern(cleanTypeSignature(line.substring(end2 + 1, end3)));
 		}
 	}
 	
+	/**
+	 * Find the end of the field starting at the given position
+	 * @param line
+	 * @param start
+	 * @return position of next tab, or end of line
+	 */
+	private static int fieldEnd(String line, int start) {
+		int ix = line.indexOf('\t', start);
+		return (ix < 0) ? line.length() : ix;
+	}
+	
 	/**
 	 * Construct TagEntry instance from information in an eObjectDescription
 	 * @param eObjDesc
@@ -128,59 +182,218 @@ public class TagEntry {
 	}
 	
 	/**
-	 * Parse the file path and line numbers (could be single (9) or range (9-18))
+	 * Construct TagEntry instance from fields which have already been parsed, e.g. from a {@link GFTagsIndex}
+	 */
+	TagEntry(String ident, String type, String qualifier, String alias, String moduleName, String file, String args, int lineFrom, int lineTo, boolean isIndirect) {
+		this.ident = intern(ident);
+		this.type = intern(type);
+		this.qualifier = intern(qualifier);
+		this.alias = intern(alias);
+		this.moduleName = intern(moduleName);
+		this.file = intern(file);
+		this.args = intern(args);
+		this.lineFrom = lineFrom;
+		this.lineTo = lineTo;
+		this.isIndirect = isIndirect;
+	}
+
+	/**
+	 * Copy a tag, e.g. in order to give it a different qualifier
+	 * @param tag
+	 */
+	public TagEntry(TagEntry tag) {
+		// Strings are already interned
+		this.ident = tag.ident;
+		this.type = tag.type;
+		this.qualifier = tag.qualifier;
+		this.alias = tag.alias;
+		this.moduleName = tag.moduleName;
+		this.file = tag.file;
+		this.args = tag.args;
+		this.lineFrom = tag.lineFrom;
+		this.lineTo = tag.lineTo;
+		this.isIndirect = tag.isIndirect;
+	}
+	
+	/**
+	 * Get the shared copy of a string
 	 * @param s
+	 * @return
 	 */
-	private void parseFileAndLineNumbers(String s) {
-		int ix = s.lastIndexOf(':');
-		this.file = (ix > 0) ? s.substring(0, ix) : s;
+	static String intern(String s) {
+		return (s == null) ? null : strings.intern(s);
+	}
+
+	/**
+	 * Parse the file path and line numbers (could be single (9) or range (9-18))
+	 * @param line
+	 * @param start start of field in line
+	 * @param end end of field in line
+	 */
+	private void parseFileAndLineNumbers(String line, int start, int end) {
+		int ix = line.lastIndexOf(':', end - 1);
+		if (ix < start)
+			ix = -1;
+		this.file = intern(line.substring(start, (ix > start) ? ix : end));
 		
 		int ixModName1 = this.file.lastIndexOf(java.io.File.separatorChar);
 		int ixModName2 = this.file.lastIndexOf('.');
-		if (ixModName2 == -1)
+		if (ixModName2 <= ixModName1)
 			this.moduleName = "";
 		else
-			this.moduleName = this.file.substring(ixModName1 + 1, ixModName2);
+			this.moduleName = intern(this.file.substring(ixModName1 + 1, ixModName2));
 		
-		String lineStr = s.substring(ix+1);
-		int rangeIx = lineStr.indexOf('-');
-		try {
-			if (rangeIx > 0) {
-				this.lineFrom = Integer.valueOf(lineStr.substring(0, rangeIx));
-				this.lineTo = Integer.valueOf(lineStr.substring(rangeIx+1));
-			} else {
-				this.lineFrom = this.lineTo = Integer.valueOf(lineStr);
-			}
-		} catch (NumberFormatException e) {
-			this.lineFrom = this.lineTo = null;
+		int lineStart = (ix < 0) ? start : ix + 1;
+		int rangeIx = line.indexOf('-', lineStart);
+		if (rangeIx > lineStart && rangeIx < end) {
+			this.lineFrom = parseLineNumber(line, lineStart, rangeIx);
+			this.lineTo = parseLineNumber(line, rangeIx + 1, end);
+		} else {
+			this.lineFrom = this.lineTo = parseLineNumber(line, lineStart, end);
+		}
+		if (this.lineFrom == NO_LINE || this.lineTo == NO_LINE) {
+			this.lineFrom = this.lineTo = NO_LINE;
 		}
 	}
 	
 	/**
-	 * Clean up a type signature by removing lock fields
+	 * Parse a line number in place
+	 * @param line
+	 * @param start
+	 * @param end
+	 * @return the number, or {@link #NO_LINE} if there isn't one
+	 */
+	private static int parseLineNumber(String line, int start, int end) {
+		if (start >= end || end - start > 9)
+			return NO_LINE;
+		int n = 0;
+		for (int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9')
+				return NO_LINE;
+			n = n * 10 + (c - '0');
+		}
+		return n;
+	}
+	
+	/**
+	 * Clean up a type signature by removing lock fields, e.g.
+	 * <code>{s : Str; lock_A : {}}</code> becomes <code>{s : Str}</code>.
+	 * Gives the same result as <code>s.replaceAll("(; )?lock_\\S+ : \\{\\}(; )?", "")</code>,
+	 * but returns the same string when there is nothing to remove.
 	 * @param s
 	 * @return
 	 */
-	private String cleanTypeSignature(String s) {
-		return s.replaceAll("(; )?lock_\\S+ : \\{\\}(; )?", "");
+	static String cleanTypeSignature(String s) {
+		int ix = s.indexOf("lock_");
+		if (ix < 0)
+			return s;
+		StringBuilder sb = null;
+		int copied = 0;
+		while (ix >= 0) {
+			// lock_Name : {}
+			int nameEnd = ix + 5;
+			while (nameEnd < s.length() && !Character.isWhitespace(s.charAt(nameEnd)))
+				nameEnd++;
+			if (nameEnd == ix + 5 || !s.startsWith(" : {}", nameEnd)) {
+				ix = s.indexOf("lock_", ix + 1);
+				continue;
+			}
+			int from = ix;
+			int to = nameEnd + 5;
+			// Take the separators on either side with it, as (; )?lock_\S+ : \{\}(; )? does
+			if (from - 2 >= copied && s.startsWith("; ", from - 2))
+				from -= 2;
+			if (s.startsWith("; ", to))
+				to += 2;
+			if (sb == null)
+				sb = new StringBuilder(s.length());
+			sb.append(s, copied, from);
+			copied = to;
+			ix = s.indexOf("lock_", to);
+		}
+		if (sb == null)
+			return s;
+		sb.append(s, copied, s.length());
+		return sb.toString();
 	}
 	
 	/**
-	 * Gets the fields as a Map<String, String> for use in an IEObjectDescription
+	 * Gets the fields as a Map<String, String> for use in an IEObjectDescription.
+	 * This is a read-only view of the tag itself, rather than a copy, and is shared by all descriptions of the tag.
 	 *
 	 * @return the properties
 	 */
 	public Map<String, String> getProperties() {
-		HashMap<String, String> userData = new HashMap<String, String>();
-		userData.put(USER_DATA_KEY_IDENT, ident);
-		userData.put(USER_DATA_KEY_TYPE, type);
-		userData.put(USER_DATA_KEY_QUALIFIER, qualifier);
-		userData.put(USER_DATA_KEY_ALIAS, alias);
-		userData.put(USER_DATA_KEY_MODULENAME, moduleName);
-		userData.put(USER_DATA_KEY_FILE, file);
-//		userData.put(USER_DATA_KEY_LINENO, lineFrom != null ? lineFrom.toString() : "");
-		userData.put(USER_DATA_KEY_ARGS, args);
-		return userData;
+		if (properties == null) {
+			properties = new Properties();
+		}
+		return properties;
+	}
+	
+	/**
+	 * Get a single property by its user data key
+	 * @param key
+	 * @return value, or <code>null</code> if the key is unknown
+	 */
+	private String getProperty(Object key) {
+		if (USER_DATA_KEY_IDENT.equals(key)) return ident;
+		if (USER_DATA_KEY_TYPE.equals(key)) return type;
+		if (USER_DATA_KEY_QUALIFIER.equals(key)) return qualifier;
+		if (USER_DATA_KEY_ALIAS.equals(key)) return alias;
+		if (USER_DATA_KEY_MODULENAME.equals(key)) return moduleName;
+		if (USER_DATA_KEY_FILE.equals(key)) return file;
+		if (USER_DATA_KEY_ARGS.equals(key)) return args;
+		return null;
+	}
+	
+	/**
+	 * Map view of the tag's fields, see {@link TagEntry#getProperties()}
+	 */
+	private class Properties extends AbstractMap<String, String> {
+		@Override
+		public String get(Object key) {
+			return getProperty(key);
+		}
+		@Override
+		public boolean containsKey(Object key) {
+			for (String k : PROPERTY_KEYS) {
+				if (k.equals(key))
+					return true;
+			}
+			return false;
+		}
+		@Override
+		public int size() {
+			return PROPERTY_KEYS.length;
+		}
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return new AbstractSet<Map.Entry<String, String>>() {
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					return new Iterator<Map.Entry<String, String>>() {
+						private int i = 0;
+						public boolean hasNext() {
+							return i < PROPERTY_KEYS.length;
+						}
+						public Map.Entry<String, String> next() {
+							if (i >= PROPERTY_KEYS.length)
+								throw new NoSuchElementException();
+							String key = PROPERTY_KEYS[i++];
+							return new AbstractMap.SimpleImmutableEntry<String, String>(key, getProperty(key));
+						}
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+				@Override
+				public int size() {
+					return PROPERTY_KEYS.length;
+				}
+			};
+		}
 	}
 	
 	public String getIdent() {
@@ -199,7 +412,7 @@ public class TagEntry {
 		return qualifier;
 	}
 	public void setQualifier(String qualifier) {
-		this.qualifier = qualifier;
+		this.qualifier = intern(qualifier);
 	}
 
 	/**
@@ -218,7 +431,7 @@ public class TagEntry {
 		return alias;
 	}
 	public void setAlias(String alias) {
-		this.alias = alias;
+		this.alias = intern(alias);
 	}
 	public boolean hasAlias() {
 		return !this.alias.isEmpty();
@@ -232,13 +445,13 @@ public class TagEntry {
 		return file;
 	}
 	public Integer getLineNumber() {
-		return lineFrom;
+		return getLineFrom();
 	}
 	public Integer getLineFrom() {
-		return lineFrom;
+		return (lineFrom == NO_LINE) ? null : lineFrom;
 	}
 	public Integer getLineTo() {
-		return lineTo;
+		return (lineTo == NO_LINE) ? null : lineTo;
 	}
 	public Boolean getIsIndirect() {
 		return isIndirect;
@@ -294,8 +507,8 @@ public class TagEntry {
 		result = prime * result + ((args == null) ? 0 : args.hashCode());
 		result = prime * result + ((file == null) ? 0 : file.hashCode());
 		result = prime * result + ((ident == null) ? 0 : ident.hashCode());
-		result = prime * result + ((lineFrom == null) ? 0 : lineFrom.hashCode());
-		result = prime * result + ((lineTo == null) ? 0 : lineTo.hashCode());
+		result = prime * result + lineFrom;
+		result = prime * result + lineTo;
 		result = prime * result + ((moduleName == null) ? 0 : moduleName.hashCode());
 		result = prime * result + ((qualifier == null) ? 0 : qualifier.hashCode());
 		result = prime * result + ((type == null) ? 0 : type.hashCode());
@@ -331,15 +544,9 @@ public class TagEntry {
 				return false;
 		} else if (!ident.equals(other.ident))
 			return false;
-		if (lineFrom == null) {
-			if (other.lineFrom != null)
-				return false;
-		} else if (!lineFrom.equals(other.lineFrom))
+		if (lineFrom != other.lineFrom)
 			return false;
-		if (lineTo == null) {
-			if (other.lineTo != null)
-				return false;
-		} else if (!lineTo.equals(other.lineTo))
+		if (lineTo != other.lineTo)
 			return false;
 		if (moduleName == null) {
 			if (other.moduleName != null)